@@ -0,0 +1,35 @@
+package com.craftinginterpreters.jez;
+//inline cache for one call site, remembers the last few callees already checked for the site's argument count
+class CallCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final Object[] callees = new Object[MAX_ENTRIES];
+    private int count = 0;
+    //seen more callees than fit, every call takes the full checks
+    private boolean megamorphic = false;
+
+    //arity never changes for a callee, a template's initializer is fixed when it is created
+    JEZCallable check(Object callee, int argumentCount, Token paren) {
+        for (int i = 0; i < count; i++) {
+            if (callees[i] == callee) return (JEZCallable)callee;
+        }
+        //runtime error
+        if (!(callee instanceof JEZCallable)) {
+            throw new RuntimeError(paren, "Can only call functions and templates.");
+        }
+        JEZCallable function = (JEZCallable)callee;
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(paren, "There needs to be " +
+                    function.arity() + " arguments but you gave " +
+                    argumentCount + ".");
+        }
+        if (!megamorphic) {
+            if (count == MAX_ENTRIES) {
+                megamorphic = true;
+            } else {
+                callees[count++] = callee;
+            }
+        }
+        return function;
+    }
+}
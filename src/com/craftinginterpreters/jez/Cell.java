@@ -0,0 +1,10 @@
+package com.craftinginterpreters.jez;
+//box for a local that closures capture and that is assigned, shared by its frame and every closure over it
+//globals live in cells too, see Environment
+class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,390 @@
+package com.craftinginterpreters.jez;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//writes a class file of static fields and methods for the JIT
+//version 49 so the JVM infers stack frames itself and no StackMapTable is needed
+//only a string too long for the constant pool or a method too large for 16 bit jumps fails, as an UncheckedIOException
+class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    //the opcodes the JIT emits
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int DCONST_0 = 0x0e;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int GETSTATIC = 0xb2;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    private static final int WIDE = 0xc4;
+    static final int IFNULL = 0xc6;
+    static final int IFNONNULL = 0xc7;
+
+    private final String name;
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final ByteArrayOutputStream members = new ByteArrayOutputStream();
+    private final DataOutputStream memberData = new DataOutputStream(members);
+    private int fieldCount = 0;
+    private final List<Code> methods = new ArrayList<>();
+
+    //name is the internal form, with slashes
+    ClassFileWriter(String name) {
+        this.name = name;
+    }
+
+    void field(int access, String name, String descriptor) {
+        try {
+            memberData.writeShort(access);
+            memberData.writeShort(utf8(name));
+            memberData.writeShort(utf8(descriptor));
+            memberData.writeShort(0);
+            fieldCount++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    Code method(int access, String name, String descriptor) {
+        Code code = new Code(access, name, descriptor);
+        methods.add(code);
+        return code;
+    }
+    byte[] toByteArray() {
+        try {
+            return write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    private byte[] write() throws IOException {
+        int thisClass = classRef(name);
+        int superClass = classRef("java/lang/Object");
+        ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(methodBytes);
+        for (Code code : methods) code.write(out);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream file = new DataOutputStream(bytes);
+        file.writeInt(0xCAFEBABE);
+        file.writeShort(0);
+        file.writeShort(49);
+        file.writeShort(poolCount);
+        poolBytes.writeTo(file);
+        file.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        file.writeShort(thisClass);
+        file.writeShort(superClass);
+        file.writeShort(0);
+        file.writeShort(fieldCount);
+        members.writeTo(file);
+        file.writeShort(methods.size());
+        methodBytes.writeTo(file);
+        file.writeShort(0);
+        return bytes.toByteArray();
+    }
+
+    //constant pool, each entry is written once and found again by a key naming its tag and contents
+    private interface Entry {
+        void write() throws IOException;
+    }
+    private int entry(String key, int slots, Entry entry) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        try {
+            entry.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndex.put(key, poolCount);
+        poolCount += slots;
+        return poolCount - slots;
+    }
+    int utf8(String text) {
+        return entry("U" + text, 1, () -> {
+            pool.writeByte(1);
+            pool.writeUTF(text);
+        });
+    }
+    int classRef(String internalName) {
+        int nameIndex = utf8(internalName);
+        return entry("C" + internalName, 1, () -> {
+            pool.writeByte(7);
+            pool.writeShort(nameIndex);
+        });
+    }
+    int string(String text) {
+        int textIndex = utf8(text);
+        return entry("S" + text, 1, () -> {
+            pool.writeByte(8);
+            pool.writeShort(textIndex);
+        });
+    }
+    int doubleConstant(double value) {
+        return entry("D" + Double.doubleToRawLongBits(value), 2, () -> {
+            pool.writeByte(6);
+            pool.writeDouble(value);
+        });
+    }
+    private int nameAndType(String name, String descriptor) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        return entry("N" + name + " " + descriptor, 1, () -> {
+            pool.writeByte(12);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descriptorIndex);
+        });
+    }
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int typeIndex = nameAndType(name, descriptor);
+        return entry(tag + owner + "." + name + " " + descriptor, 1, () -> {
+            pool.writeByte(tag);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(typeIndex);
+        });
+    }
+
+    //a jump target, jumps to it before it is placed are patched when the method is written
+    static class Label {
+        private int position = -1;
+        //stack depth at the target, -1 until a jump or the label itself sets it
+        private int stack = -1;
+        private final List<int[]> jumps = new ArrayList<>();
+    }
+
+    //bytecode of one method, tracking the operand stack depth to size max_stack
+    class Code {
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private byte[] code = new byte[256];
+        private int count = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals = 0;
+        private final List<Label> labels = new ArrayList<>();
+
+        private Code(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+        private void emit(int b) {
+            if (count == code.length) code = Arrays.copyOf(code, count * 2);
+            code[count++] = (byte) b;
+        }
+        private void emitShort(int s) {
+            emit(s >> 8);
+            emit(s);
+        }
+        //stack effect in slots, doubles count twice
+        private void adjust(int delta) {
+            stack += delta;
+            if (stack > maxStack) maxStack = stack;
+        }
+        void op(int opcode, int delta) {
+            emit(opcode);
+            adjust(delta);
+        }
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                emit(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                emit(BIPUSH);
+                emit(value);
+            } else {
+                emit(SIPUSH);
+                emitShort(value);
+            }
+            adjust(1);
+        }
+        void ldc(String text) {
+            constant(string(text));
+        }
+        private void constant(int index) {
+            if (index < 256) {
+                emit(LDC);
+                emit(index);
+            } else {
+                emit(LDC_W);
+                emitShort(index);
+            }
+            adjust(1);
+        }
+        void ldc(double value) {
+            emit(LDC2_W);
+            emitShort(doubleConstant(value));
+            adjust(2);
+        }
+        void aload(int local) {
+            local(ALOAD, local);
+            adjust(1);
+        }
+        void astore(int local) {
+            local(ASTORE, local);
+            adjust(-1);
+        }
+        //a double takes the local after it too
+        void dload(int local) {
+            local(DLOAD, local, local + 1);
+            adjust(2);
+        }
+        void dstore(int local) {
+            local(DSTORE, local, local + 1);
+            adjust(-2);
+        }
+        private void local(int opcode, int local) {
+            local(opcode, local, local);
+        }
+        //last is the highest local the instruction touches
+        private void local(int opcode, int local, int last) {
+            if (last >= maxLocals) maxLocals = last + 1;
+            if (local < 256) {
+                emit(opcode);
+                emit(local);
+            } else {
+                emit(WIDE);
+                emit(opcode);
+                emitShort(local);
+            }
+        }
+        //checkcast and anewarray, which take a class
+        void type(int opcode, String internalName) {
+            emit(opcode);
+            emitShort(classRef(internalName));
+        }
+        void getstatic(String owner, String name, String descriptor) {
+            emit(GETSTATIC);
+            emitShort(memberRef(9, owner, name, descriptor));
+            adjust(slots(descriptor.charAt(0)));
+        }
+        void invokestatic(String owner, String name, String descriptor) {
+            emit(INVOKESTATIC);
+            emitShort(memberRef(10, owner, name, descriptor));
+            adjust(stackEffect(descriptor));
+        }
+        void invokevirtual(String owner, String name, String descriptor) {
+            emit(INVOKEVIRTUAL);
+            emitShort(memberRef(10, owner, name, descriptor));
+            adjust(stackEffect(descriptor) - 1);
+        }
+        //conditional jumps pop their operands before the label sees the depth
+        void jump(int opcode, Label label) {
+            if (opcode == IFNULL || opcode == IFNONNULL || (opcode >= IFEQ && opcode <= IFLE)) adjust(-1);
+            label.stack = stack;
+            label.jumps.add(new int[] {count, count + 1});
+            if (!labels.contains(label)) labels.add(label);
+            emit(opcode);
+            emitShort(0);
+        }
+        void mark(Label label) {
+            label.position = count;
+            if (label.stack >= 0) {
+                stack = label.stack;
+            } else {
+                label.stack = stack;
+            }
+            if (!labels.contains(label)) labels.add(label);
+        }
+        //after goto or a return nothing falls through, the next label or statement sets the depth
+        void resetStack(int depth) {
+            stack = depth;
+        }
+        private int slots(char type) {
+            if (type == 'V') return 0;
+            if (type == 'D' || type == 'J') return 2;
+            return 1;
+        }
+        //return slots minus argument slots, read off a method descriptor
+        private int stackEffect(String descriptor) {
+            int effect = 0;
+            int i = 1;
+            while (descriptor.charAt(i) != ')') {
+                char c = descriptor.charAt(i);
+                if (c == '[') {
+                    while (descriptor.charAt(i) == '[') i++;
+                    if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+                    effect -= 1;
+                } else if (c == 'L') {
+                    i = descriptor.indexOf(';', i);
+                    effect -= 1;
+                } else {
+                    effect -= slots(c);
+                }
+                i++;
+            }
+            return effect + slots(descriptor.charAt(i + 1));
+        }
+        private void write(DataOutputStream out) throws IOException {
+            if (count > 0xFFFF / 2) throw new IOException("Method too large.");
+            for (Label label : labels) {
+                for (int[] jump : label.jumps) {
+                    int offset = label.position - jump[0];
+                    code[jump[1]] = (byte) (offset >> 8);
+                    code[jump[1] + 1] = (byte) offset;
+                }
+            }
+            int codeAttribute = utf8("Code");
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);
+            out.writeShort(codeAttribute);
+            out.writeInt(12 + count);
+            out.writeShort(maxStack);
+            out.writeShort(Math.max(maxLocals, argumentSlots()));
+            out.writeInt(count);
+            out.write(code, 0, count);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+        private int argumentSlots() {
+            int effect = stackEffect(descriptor) - slots(descriptor.charAt(descriptor.indexOf(')') + 1));
+            return -effect + ((access & ACC_STATIC) != 0 ? 0 : 1);
+        }
+    }
+}
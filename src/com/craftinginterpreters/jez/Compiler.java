@@ -0,0 +1,530 @@
+package com.craftinginterpreters.jez;
+import java.util.ArrayList;
+import java.util.List;
+
+//compiles resolved statements to bytecode for the VM
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+    //local variable living in a stack slot of the current call
+    private static class Local {
+        final String name;
+        //scope depth, -1 while its initializer is still running
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+    //where a closure finds a captured variable when it is created
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+    //bookkeeping for the function currently being compiled
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VMFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        int stackDepth = 1;
+
+        FunctionState(FunctionState enclosing, VMFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            //slot zero holds the callee, or the receiver for methods
+            if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+                locals.add(new Local("this", 0));
+            } else {
+                locals.add(new Local("", 0));
+            }
+        }
+    }
+    //how many values each instruction pushes (positive) or pops (negative)
+    private static final int[] STACK_EFFECT = new int[OpCode.INVOKE + 1];
+    static {
+        STACK_EFFECT[OpCode.CONSTANT] = 1;
+        STACK_EFFECT[OpCode.NIL] = 1;
+        STACK_EFFECT[OpCode.TRUE] = 1;
+        STACK_EFFECT[OpCode.FALSE] = 1;
+        STACK_EFFECT[OpCode.POP] = -1;
+        STACK_EFFECT[OpCode.GET_LOCAL] = 1;
+        STACK_EFFECT[OpCode.GET_GLOBAL] = 1;
+        STACK_EFFECT[OpCode.DEFINE_GLOBAL] = -1;
+        STACK_EFFECT[OpCode.GET_UPVALUE] = 1;
+        STACK_EFFECT[OpCode.SET_PROPERTY] = -1;
+        STACK_EFFECT[OpCode.GET_SUPER] = -1;
+        for (int op = OpCode.EQUAL; op <= OpCode.DIVIDE; op++) {
+            STACK_EFFECT[op] = -1;
+        }
+        STACK_EFFECT[OpCode.PRINT] = -1;
+        STACK_EFFECT[OpCode.CLOSURE] = 1;
+        STACK_EFFECT[OpCode.CLOSE_UPVALUE] = -1;
+        STACK_EFFECT[OpCode.RETURN] = -1;
+        STACK_EFFECT[OpCode.CLASS] = 1;
+        STACK_EFFECT[OpCode.METHOD] = -1;
+    }
+
+    private FunctionState current = null;
+    //line given to emitted code, taken from the nearest token
+    private int line = 1;
+
+    //compile a whole program into the body of an implicit script function
+    VMFunction compileScript(List<Stmt> statements) {
+        current = new FunctionState(null, new VMFunction(null, 0), FunctionType.SCRIPT);
+        compile(statements);
+        emitReturn();
+        return endFunction();
+    }
+    private void compile(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+    }
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        compile(stmt.statements);
+        endScope();
+        return null;
+    }
+    //the name is defined as nil first, then the finished template is assigned to it
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        if (current.scopeDepth > 0) declareLocal(stmt.name);
+        emit(OpCode.NIL);
+        defineVariable(stmt.name);
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+            //methods find the superclass through a hidden local
+            beginScope();
+            current.locals.add(new Local("super", current.scopeDepth));
+        }
+        line = stmt.name.line;
+        emit(OpCode.CLASS);
+        emitInt(makeConstant(stmt.name.lexeme));
+        emitByte(stmt.superclass != null ? 1 : 0);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = FunctionType.METHOD;
+            if (method.name.lexeme.equals("initialize")) {
+                type = FunctionType.INITIALIZER;
+            }
+            function(method, type);
+            line = method.name.line;
+            emit(OpCode.METHOD);
+            emitInt(makeConstant(method.name.lexeme));
+        }
+        namedVariable(stmt.name, true);
+        emit(OpCode.POP);
+        if (stmt.superclass != null) endScope();
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        //mark a local function ready before its body so it can call itself
+        if (current.scopeDepth > 0) {
+            declareLocal(stmt.name);
+            markInitialized();
+        }
+        function(stmt, FunctionType.FUNCTION);
+        if (current.scopeDepth == 0) {
+            emit(OpCode.DEFINE_GLOBAL);
+            emitInt(makeConstant(stmt.name.lexeme));
+        }
+        return null;
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        //the condition is still on the stack when the else branch starts
+        current.stackDepth++;
+        emit(OpCode.POP);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+    //an explicit return from an initializer gives nil, constructing still yields the instance
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emit(OpCode.NIL);
+        } else {
+            compile(stmt.value);
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (current.scopeDepth > 0) declareLocal(stmt.name);
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);
+        }
+        defineVariable(stmt.name);
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emit(OpCode.POP);
+        }
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        current.stackDepth++;
+        emit(OpCode.POP);
+        return null;
+    }
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        namedVariable(expr.name, true);
+        return null;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER: emit(OpCode.GREATER); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+            case LESS: emit(OpCode.LESS); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+            case MINUS: emit(OpCode.SUBTRACT); break;
+            case PLUS: emit(OpCode.ADD); break;
+            case SLASH: emit(OpCode.DIVIDE); break;
+            case STAR: emit(OpCode.MULTIPLY); break;
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+        }
+        return null;
+    }
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get && canInvoke(expr.arguments)) {
+            Expr.Get callee = (Expr.Get)expr.callee;
+            compile(callee.object);
+            for (Expr argument : expr.arguments) {
+                compile(argument);
+            }
+            line = expr.paren.line;
+            emit(OpCode.INVOKE);
+            emitInt(makeConstant(callee.name));
+            emitByte(expr.arguments.size());
+            current.stackDepth -= expr.arguments.size();
+            return null;
+        }
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        line = expr.paren.line;
+        emit(OpCode.CALL);
+        emitByte(expr.arguments.size());
+        current.stackDepth -= expr.arguments.size();
+        return null;
+    }
+    //INVOKE finds the method after the arguments run, the tree-walker before
+    //so only arguments that can not fail or have effects are allowed, where the order makes no difference
+    static boolean canInvoke(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            if (!isPure(argument)) return false;
+        }
+        return true;
+    }
+    //evaluating it can not fail or change anything
+    static boolean isPure(Expr expr) {
+        while (expr instanceof Expr.Grouping) expr = ((Expr.Grouping)expr).expression;
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+        return expr instanceof Expr.Variable && ((Expr.Variable)expr).slot >= 0;
+    }
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emit(OpCode.GET_PROPERTY);
+        emitInt(makeConstant(expr.name));
+        return null;
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE);
+        } else {
+            emit(OpCode.CONSTANT);
+            emitInt(makeConstant(expr.value));
+        }
+        return null;
+    }
+    //the right operand is skipped by jumping over it with the left value still on the stack
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+    //the interpreter rejects a non-instance before it evaluates the value, so check first
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        if (!(expr.object instanceof Expr.This)) {
+            line = expr.name.line;
+            emit(OpCode.CHECK_FIELDS);
+            emitInt(makeConstant(expr.name));
+        }
+        compile(expr.value);
+        line = expr.name.line;
+        emit(OpCode.SET_PROPERTY);
+        emitInt(makeConstant(expr.name));
+        return null;
+    }
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        namedVariable(new Token(TokenType.THIS, "this", null, expr.keyword.line), false);
+        namedVariable(expr.keyword, false);
+        line = expr.method.line;
+        emit(OpCode.GET_SUPER);
+        emitInt(makeConstant(expr.method));
+        return null;
+    }
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        namedVariable(expr.keyword, false);
+        return null;
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG: emit(OpCode.NOT); break;
+            case MINUS: emit(OpCode.NEGATE); break;
+        }
+        return null;
+    }
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        namedVariable(expr.name, false);
+        return null;
+    }
+    //compile a function body in its own state, then emit the closure that creates it
+    private void function(Stmt.Function stmt, FunctionType type) {
+        FunctionState enclosing = current;
+        current = new FunctionState(enclosing,
+                new VMFunction(stmt.name.lexeme, stmt.parameters.size()), type);
+        beginScope();
+        for (Token param : stmt.parameters) {
+            declareLocal(param);
+            markInitialized();
+            current.stackDepth++;
+        }
+        compile(stmt.body);
+        emitReturn();
+        List<Upvalue> upvalues = current.upvalues;
+        VMFunction function = endFunction();
+        line = stmt.name.line;
+        emit(OpCode.CLOSURE);
+        emitInt(makeConstant(function));
+        for (Upvalue upvalue : upvalues) {
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitInt(upvalue.index);
+        }
+    }
+    private VMFunction endFunction() {
+        VMFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.finish();
+        Peephole.optimize(function.chunk);
+        current = current.enclosing;
+        return function;
+    }
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+    //drop the scope's locals, moving captured ones off the stack
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured) {
+                emit(OpCode.CLOSE_UPVALUE);
+            } else {
+                emit(OpCode.POP);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+    private void declareLocal(Token name) {
+        current.locals.add(new Local(name.lexeme, -1));
+    }
+    private void markInitialized() {
+        current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+    }
+    //locals already sit in their stack slot, globals are stored by name
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+        emit(OpCode.DEFINE_GLOBAL);
+        emitInt(makeConstant(name.lexeme));
+    }
+    private void namedVariable(Token name, boolean assign) {
+        line = name.line;
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            emit(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL);
+            emitInt(arg);
+        } else if ((arg = resolveUpvalue(current, name.lexeme)) != -1) {
+            emit(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE);
+            emitInt(arg);
+        } else {
+            emit(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL);
+            emitInt(makeConstant(name));
+        }
+    }
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+    //look through enclosing functions, capturing the variable at each level on the way back
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, upvalue, false);
+        return -1;
+    }
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL);
+            emitInt(0);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+    }
+    //write an opcode and track how deep the stack can get
+    private void emit(byte op) {
+        emitByte(op);
+        current.stackDepth += STACK_EFFECT[op];
+        if (current.stackDepth > current.function.maxStack) {
+            current.function.maxStack = current.stackDepth;
+        }
+    }
+    private void emitByte(int b) {
+        current.function.chunk.write(b, line);
+    }
+    //operands are four bytes, so no function is too big for its jumps, slots or constants
+    private void emitInt(int value) {
+        emitByte((value >> 24) & 0xff);
+        emitByte((value >> 16) & 0xff);
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+    private int emitJump(byte op) {
+        emit(op);
+        emitInt(-1);
+        return current.function.chunk.count - 4;
+    }
+    private void patchJump(int offset) {
+        int jump = current.function.chunk.count - offset - 4;
+        byte[] code = current.function.chunk.code;
+        code[offset] = (byte) ((jump >> 24) & 0xff);
+        code[offset + 1] = (byte) ((jump >> 16) & 0xff);
+        code[offset + 2] = (byte) ((jump >> 8) & 0xff);
+        code[offset + 3] = (byte) (jump & 0xff);
+    }
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        emitInt(current.function.chunk.count - loopStart + 4);
+    }
+    private int makeConstant(Object value) {
+        return current.function.chunk.addConstant(value);
+    }
+}
@@ -2,57 +2,32 @@ package com.craftinginterpreters.jez;
 import java.util.HashMap;
 import java.util.Map;
 
+//global variables, locals live in stack frames and closures
+//each global keeps one cell from its first definition on, so a use site can hold on to the cell instead of the name
 class Environment {
-    final Environment enclosing;
-    //constructors
-    //for global scope
-    Environment() {
-        enclosing = null;
-    }
-    //for local scope
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
-    }
-    private final Map<String, Object> values = new HashMap<>();
-    //look up variable
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-        if (enclosing != null) return enclosing.get(name);
+    private final Map<String, Cell> values = new HashMap<>();
+    //look up the global's cell, error if variable doesnt exist
+    Cell cell(Token name) {
+        Cell cell = values.get(name.lexeme);
+        if (cell != null) return cell;
         throw new RuntimeError(name,
                 "Variable '" + name.lexeme + "' has not been created.");
     }
-    //assign values, error if variable doesnt exist already
+    //look up global variable
+    Object get(Token name) {
+        return cell(name).value;
+    }
+    //assign global values, error if variable doesnt exist already
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-        //check outer environment for var if not in enclosed one
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-        throw new RuntimeError(name,
-                "Variable '" + name.lexeme + "' has not been created.");
+        cell(name).value = value;
     }
+    //defining again keeps the cell, use sites that cached it see the new value
     void define(String name, Object value) {
-        values.put(name, value);
-    }
-    //reach environment w wanted variable
-    Environment ancestor(int distance) {
-        Environment environment = this;
-        for (int i = 0; i < distance; i++) {
-            environment = environment.enclosing;
+        Cell cell = values.get(name);
+        if (cell == null) {
+            values.put(name, new Cell(value));
+        } else {
+            cell.value = value;
         }
-
-        return environment;
-    }
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
-    }
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
     }
-}
\ No newline at end of file
+}
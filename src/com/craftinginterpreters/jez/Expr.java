@@ -17,8 +17,27 @@ abstract class Expr {
         R visitUnaryExpr(Unary expr);
         R visitVariableExpr(Variable expr);
     }
+    //which subclass a node is, for evaluators that switch on it instead of going through accept
+    static final int ASSIGN = 0;
+    static final int BINARY = 1;
+    static final int CALL = 2;
+    static final int GET = 3;
+    static final int GROUPING = 4;
+    static final int LITERAL = 5;
+    static final int LOGICAL = 6;
+    static final int SET = 7;
+    static final int SUPER = 8;
+    static final int THIS = 9;
+    static final int UNARY = 10;
+    static final int VARIABLE = 11;
+    final int kind;
+
+    Expr(int kind) {
+        this.kind = kind;
+    }
     static class Assign extends Expr {
         Assign(Token name, Expr value) {
+            super(ASSIGN);
             this.name = name;
             this.value = value;
         }
@@ -29,9 +48,20 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        //stack slot, or upvalue index when upvalue is set, -1 for globals, set by the resolver
+        int slot = -1;
+        //the variable belongs to an enclosing function and is reached through the closure
+        boolean upvalue;
+        //the slot holds a cell shared with closures because the variable is captured and assigned
+        boolean boxed;
+        //the local is a proven number kept in the frame's double slots, set by type inference
+        boolean unboxed;
+        //cell of the global it names, cached by the first assignment that finds it
+        Cell global;
     }
     static class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
+            super(BINARY);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -44,9 +74,14 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        //operand types seen so far, one of the interpreter's UNINITIALIZED, NUMBERS, STRINGS or GENERIC
+        int specialized;
+        //both operands are proven numbers, set by type inference
+        boolean numeric;
     }
     static class Call extends Expr {
         Call(Expr callee, Token paren, List<Expr> arguments) {
+            super(CALL);
             this.callee = callee;
             this.paren = paren;
             this.arguments = arguments;
@@ -59,9 +94,12 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        //callees this call already checked, filled in by the interpreter
+        final CallCache cache = new CallCache();
     }
     static class Get extends Expr {
         Get(Expr object, Token name) {
+            super(GET);
             this.object = object;
             this.name = name;
         }
@@ -72,9 +110,12 @@ abstract class Expr {
 
         final Expr object;
         final Token name;
+        //shapes seen by this get, filled in by the interpreter
+        final PropertyCache cache = new PropertyCache();
     }
     static class Grouping extends Expr {
         Grouping(Expr expression) {
+            super(GROUPING);
             this.expression = expression;
         }
 
@@ -86,6 +127,7 @@ abstract class Expr {
     }
     static class Literal extends Expr {
         Literal(Object value) {
+            super(LITERAL);
             this.value = value;
         }
 
@@ -97,6 +139,7 @@ abstract class Expr {
     }
     static class Logical extends Expr {
         Logical(Expr left, Token operator, Expr right) {
+            super(LOGICAL);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -112,6 +155,7 @@ abstract class Expr {
     }
     static class Set extends Expr {
         Set(Expr object, Token name, Expr value) {
+            super(SET);
             this.object = object;
             this.name = name;
             this.value = value;
@@ -124,9 +168,12 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        //shapes seen by this set, filled in by the interpreter
+        final PropertyCache cache = new PropertyCache();
     }
     static class Super extends Expr {
         Super(Token keyword, Token method) {
+            super(SUPER);
             this.keyword = keyword;
             this.method = method;
         }
@@ -137,9 +184,18 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+        //stack slot holding the superclass, or its upvalue index, set by the resolver
+        int slot;
+        //the superclass is reached through the closure
+        boolean upvalue;
+        //stack slot zero, or the receiver's upvalue index
+        int thisSlot;
+        //the receiver is reached through the closure
+        boolean thisUpvalue;
     }
     static class This extends Expr {
         This(Token keyword) {
+            super(THIS);
             this.keyword = keyword;
         }
 
@@ -148,9 +204,14 @@ abstract class Expr {
         }
 
         final Token keyword;
+        //stack slot zero, or the receiver's upvalue index, set by the resolver
+        int slot;
+        //the receiver is reached through the closure
+        boolean upvalue;
     }
     static class Unary extends Expr {
         Unary(Token operator, Expr right) {
+            super(UNARY);
             this.operator = operator;
             this.right = right;
         }
@@ -161,9 +222,14 @@ abstract class Expr {
 
         final Token operator;
         final Expr right;
+        //operand types seen so far, one of the interpreter's UNINITIALIZED, NUMBERS or GENERIC
+        int specialized;
+        //the operand is a proven number, set by type inference
+        boolean numeric;
     }
     static class Variable extends Expr {
         Variable(Token name) {
+            super(VARIABLE);
             this.name = name;
         }
 
@@ -172,6 +238,16 @@ abstract class Expr {
         }
 
         final Token name;
+        //stack slot, or upvalue index when upvalue is set, -1 for globals, set by the resolver
+        int slot = -1;
+        //the variable belongs to an enclosing function and is reached through the closure
+        boolean upvalue;
+        //the slot holds a cell shared with closures because the variable is captured and assigned
+        boolean boxed;
+        //the local is a proven number kept in the frame's double slots, set by type inference
+        boolean unboxed;
+        //cell of the global it names, cached by the first read that finds it
+        Cell global;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
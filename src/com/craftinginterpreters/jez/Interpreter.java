@@ -1,25 +1,59 @@
 package com.craftinginterpreters.jez;
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
 
-class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
     final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-    //create clock
+    //hot plain functions are compiled to JVM classes, --no-jit keeps everything in the tree-walker
+    boolean jit = true;
+    //--switch has evaluate and execute switch on the node's kind and call the visit method directly instead of accept
+    boolean switchDispatch = false;
+    //locals of the running calls, each call's frame starts at fp and the next one at sp
+    private Object[] stack = new Object[256];
+    //the same slots for locals type inference proved are numbers, so they are never boxed
+    private double[] numbers = new double[256];
+    private int fp = 0;
+    private int sp = 0;
+    //values and cells the running function closed over
+    private Object[] upvalues = new Object[0];
+    //the plain function whose frame is running, its loops count toward compiling it, null at the top level and in methods
+    private Stmt.Function running = null;
+    //what a statement hands back when a return ran inside it, the value waits in returnValue
+    private static final Object RETURNED = new Object();
+    private Object returnValue = null;
+    //what a body hands back when it ended in a tail call, the call waits in the tail fields for the trampoline
+    private static final Object TAIL_CALL = new Object();
+    private JEZFunction tailFunction = null;
+    private JEZInstance tailInstance = null;
+    private List<Object> tailArguments = null;
+    //what a binary or unary node has specialized itself to from the operands it has seen
+    private static final int UNINITIALIZED = 0;
+    private static final int NUMBERS = 1;
+    private static final int STRINGS = 2;
+    private static final int GENERIC = 3;
     Interpreter() {
+        defineNatives(globals);
+    }
+    //create clock, shared with the VM
+    static void defineNatives(Environment globals) {
         globals.define("clock", new JEZCallable() {
             @Override
             public int arity() {
                 return 0;
             }
 
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return (double) System.currentTimeMillis() / 1000.0;
+            }
+
             @Override
             public Object call(Interpreter interpreter,
                                List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000.0;
+                return call0(interpreter);
             }
         });
     }
@@ -27,7 +61,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             public String toString() { return "<native fn>"; }
 
     //public API
-    void interpret(List<Stmt> statements) {
+    void interpret(List<Stmt> statements, int stackSize) {
+        upvalues = new Object[0];
+        fp = 0;
+        sp = stackSize;
+        ensureStack(sp);
         try {
             for (Stmt statement : statements) {
                 execute(statement);
@@ -61,28 +99,43 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         if (!(object instanceof JEZInstance)) {throw new RuntimeError(expr.name, "Only objects have fields.");
         }
         Object value = evaluate(expr.value);
-        ((JEZInstance)object).set(expr.name, value);
+        expr.cache.set((JEZInstance)object, expr.name, value);
         return value;
     }
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        JEZClass superclass = (JEZClass)environment.getAt(distance, "super");
-        JEZInstance object = (JEZInstance)environment.getAt(distance - 1, "this");
+        return superMethod(expr).bind(thisForSuper(expr));
+    }
+    //the superclass method super.name refers to, not yet bound to this
+    private JEZFunction superMethod(Expr.Super expr) {
+        JEZClass superclass = (JEZClass)(expr.upvalue ? upvalues[expr.slot] : stack[fp + expr.slot]);
         JEZFunction method = superclass.findMethod(expr.method.lexeme);
         if (method == null) {
             throw new RuntimeError(expr.method, "Did not create property '" + expr.method.lexeme + "'.");
         }
-        return method.bind(object);
+        return method;
+    }
+    //this sits in slot zero of the method's frame
+    private JEZInstance thisForSuper(Expr.Super expr) {
+        return (JEZInstance)(expr.thisUpvalue ? upvalues[expr.thisSlot] : stack[fp + expr.thisSlot]);
     }
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        if (expr.upvalue) return upvalues[expr.slot];
+        return stack[fp + expr.slot];
     }
     //evaluate operand expression
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.numeric) return -number(expr.right);
         Object right = evaluate(expr.right);
+        if (expr.specialized == NUMBERS) {
+            if (right instanceof Double) return -(double)right;
+            expr.specialized = GENERIC;
+        } else if (expr.specialized == UNINITIALIZED) {
+            boolean number = expr.operator.type == TokenType.MINUS && right instanceof Double;
+            expr.specialized = number ? NUMBERS : GENERIC;
+        }
         switch (expr.operator.type) {
             //allow ! to be true
             case BANG:
@@ -95,41 +148,45 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        if (expr.unboxed) return numbers[fp + expr.slot];
+        if (expr.slot < 0) return global(expr).value;
+        Object value = expr.upvalue ? upvalues[expr.slot] : stack[fp + expr.slot];
+        if (expr.boxed) return ((Cell)value).value;
+        return value;
     }
-    //checks if var is within distance
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } else {
-            return globals.get(name);
-        }
+    //a global's cell never changes once it exists, so each use site looks it up once
+    Cell global(Expr.Variable expr) {
+        if (expr.global == null) expr.global = globals.cell(expr.name);
+        return expr.global;
+    }
+    Cell global(Expr.Assign expr) {
+        if (expr.global == null) expr.global = globals.cell(expr.name);
+        return expr.global;
     }
     private void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Everything in equation must be a number.");
     }
     //validator
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
 
         throw new RuntimeError(operator, "Everything in equation must be a number.");
     }
     //false and null are false, everything else is truthy
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
     //handle equality
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
         return a.equals(b);
     }
     //takes in a syntax tree as string and evaluates
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -147,39 +204,209 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.expression);
     }
     //send expression to visitor implementation
+    //accept is one call site shared by every node, too many receiver types for the JVM to inline, the switch avoids it
+    //but makes evaluate too big to inline into its callers, so neither wins clearly and accept stays the default
     private Object evaluate(Expr expr) {
+        if (!switchDispatch) return expr.accept(this);
+        switch (expr.kind) {
+            case Expr.ASSIGN: return visitAssignExpr((Expr.Assign)expr);
+            case Expr.BINARY: return visitBinaryExpr((Expr.Binary)expr);
+            case Expr.CALL: return visitCallExpr((Expr.Call)expr);
+            case Expr.GET: return visitGetExpr((Expr.Get)expr);
+            case Expr.GROUPING: return visitGroupingExpr((Expr.Grouping)expr);
+            case Expr.LITERAL: return visitLiteralExpr((Expr.Literal)expr);
+            case Expr.LOGICAL: return visitLogicalExpr((Expr.Logical)expr);
+            case Expr.SET: return visitSetExpr((Expr.Set)expr);
+            case Expr.SUPER: return visitSuperExpr((Expr.Super)expr);
+            case Expr.THIS: return visitThisExpr((Expr.This)expr);
+            case Expr.UNARY: return visitUnaryExpr((Expr.Unary)expr);
+            case Expr.VARIABLE: return visitVariableExpr((Expr.Variable)expr);
+        }
         return expr.accept(this);
     }
-    //helper
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    //unboxed and unchecked, for an operand type inference proved is a number
+    private double number(Expr expr) {
+        switch (expr.kind) {
+            case Expr.BINARY: {
+                Expr.Binary binary = (Expr.Binary)expr;
+                if (!binary.numeric) break;
+                double left = number(binary.left);
+                double right = number(binary.right);
+                switch (binary.operator.type) {
+                    case MINUS: return left - right;
+                    case PLUS: return left + right;
+                    case SLASH: return left / right;
+                    case STAR: return left * right;
+                }
+                break;
+            }
+            case Expr.UNARY: {
+                Expr.Unary unary = (Expr.Unary)expr;
+                if (unary.numeric) return -number(unary.right);
+                break;
+            }
+            case Expr.VARIABLE: {
+                Expr.Variable variable = (Expr.Variable)expr;
+                if (variable.unboxed) return numbers[fp + variable.slot];
+                break;
+            }
+            case Expr.ASSIGN: {
+                Expr.Assign assign = (Expr.Assign)expr;
+                if (!assign.unboxed) break;
+                //evaluated first, a call in it can grow the arrays
+                double value = number(assign.value);
+                numbers[fp + assign.slot] = value;
+                return value;
+            }
+            case Expr.LITERAL:
+                return (double)((Expr.Literal)expr).value;
+            case Expr.GROUPING:
+                return number(((Expr.Grouping)expr).expression);
+        }
+        return (double)evaluate(expr);
+    }
+    //helper, true when the statement ran a return
+    private boolean execute(Stmt stmt) {
+        if (!switchDispatch) return stmt.accept(this) == RETURNED;
+        Object result = null;
+        switch (stmt.kind) {
+            case Stmt.BLOCK: result = visitBlockStmt((Stmt.Block)stmt); break;
+            case Stmt.CLASS: result = visitClassStmt((Stmt.Class)stmt); break;
+            case Stmt.EXPRESSION: result = visitExpressionStmt((Stmt.Expression)stmt); break;
+            case Stmt.FUNCTION: result = visitFunctionStmt((Stmt.Function)stmt); break;
+            case Stmt.IF: result = visitIfStmt((Stmt.If)stmt); break;
+            case Stmt.PRINT: result = visitPrintStmt((Stmt.Print)stmt); break;
+            case Stmt.RETURN: result = visitReturnStmt((Stmt.Return)stmt); break;
+            case Stmt.VAR: result = visitVarStmt((Stmt.Var)stmt); break;
+            case Stmt.WHILE: result = visitWhileStmt((Stmt.While)stmt); break;
+        }
+        return result == RETURNED;
+    }
+    //stops early and returns true when a return runs
+    private boolean executeBlock(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (execute(statement)) return true;
+        }
+        return false;
     }
-    //resolver gives # of envir. between current and enclosing where interp. can find var value
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    //value of the return that last ended a function body
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
     }
-    //environment for blocks scope
-    void executeBlock(List<Stmt> statements, Environment environment) {
-        Environment previous = this.environment;
+    //a call in tail position, a function is left pending so the caller's frame is popped before it runs
+    //instance is the receiver of a method called on it, null for anything else
+    Object tailCall(JEZCallable function, JEZInstance instance, List<Object> arguments) {
+        if (!(function instanceof JEZFunction)) return function.call(this, arguments);
+        tailFunction = (JEZFunction)function;
+        tailInstance = instance;
+        tailArguments = arguments;
+        return TAIL_CALL;
+    }
+    //runs pending tail calls one after the other in the same java frame until a body returns a value
+    Object trampoline(Object result) {
+        while (result == TAIL_CALL) {
+            JEZFunction function = tailFunction;
+            JEZInstance instance = tailInstance;
+            List<Object> arguments = tailArguments;
+            tailFunction = null;
+            tailInstance = null;
+            tailArguments = null;
+            result = function.enter(this, instance, arguments);
+        }
+        return result;
+    }
+    //runs a function body in a new stack frame with the values it closed over
+    //the body runs in this java frame, not a helper's, so a JEZ call costs as little java stack as it can
+    boolean executeCall(Stmt.Function declaration, Object[] closure, JEZInstance instance,
+                        List<Object> arguments) {
+        int previousFp = fp;
+        Object[] previousUpvalues = upvalues;
+        Stmt.Function previousFunction = running;
+        int first = pushFrame(declaration, closure, instance);
+        for (int i = 0; i < arguments.size(); i++) {
+            stack[first + i] = arguments.get(i);
+        }
+        for (int slot : declaration.boxedParameters) {
+            stack[fp + slot] = new Cell(stack[fp + slot]);
+        }
         try {
-            this.environment = environment;
-
-            for (Stmt statement : statements) {
-                execute(statement);
+            for (Stmt statement : declaration.body) {
+                if (execute(statement)) return true;
             }
+            return false;
         } finally {
-            this.environment = previous;
+            popFrame(previousFp, previousUpvalues, previousFunction);
+        }
+    }
+    //the fixed-arity form, up to four arguments go straight into the frame with no list
+    boolean executeCall(Stmt.Function declaration, Object[] closure, JEZInstance instance,
+                        int count, Object a, Object b, Object c, Object d) {
+        int previousFp = fp;
+        Object[] previousUpvalues = upvalues;
+        Stmt.Function previousFunction = running;
+        int first = pushFrame(declaration, closure, instance);
+        if (count > 0) stack[first] = a;
+        if (count > 1) stack[first + 1] = b;
+        if (count > 2) stack[first + 2] = c;
+        if (count > 3) stack[first + 3] = d;
+        for (int slot : declaration.boxedParameters) {
+            stack[fp + slot] = new Cell(stack[fp + slot]);
+        }
+        try {
+            for (Stmt statement : declaration.body) {
+                if (execute(statement)) return true;
+            }
+            return false;
+        } finally {
+            popFrame(previousFp, previousUpvalues, previousFunction);
+        }
+    }
+    //the new frame starts where the caller's ends, returns the slot of the first parameter
+    private int pushFrame(Stmt.Function declaration, Object[] closure, JEZInstance instance) {
+        fp = sp;
+        sp = fp + declaration.stackSize;
+        ensureStack(sp);
+        upvalues = closure;
+        running = jit && instance == null ? declaration : null;
+        if (instance == null) return fp;
+        stack[fp] = instance;
+        return fp + 1;
+    }
+    private void popFrame(int previousFp, Object[] previousUpvalues, Stmt.Function previousFunction) {
+        //drop references so the frame does not keep garbage alive
+        Arrays.fill(stack, fp, sp, null);
+        sp = fp;
+        fp = previousFp;
+        upvalues = previousUpvalues;
+        running = previousFunction;
+    }
+    //what a new closure captures from the running frame, cells are shared so assignments stay visible
+    private Object[] captureUpvalues(Stmt.Function declaration) {
+        Object[] captured = new Object[declaration.upvalues.length];
+        for (int i = 0; i < captured.length; i++) {
+            int index = declaration.upvalues[i];
+            captured[i] = declaration.upvalueIsLocal[i] ? stack[fp + index] : upvalues[index];
+        }
+        return captured;
+    }
+    private void ensureStack(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+            numbers = Arrays.copyOf(numbers, stack.length);
         }
     }
+    //block locals live in the enclosing call's stack frame, so a block needs nothing of its own
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+    public Object visitBlockStmt(Stmt.Block stmt) {
+        if (executeBlock(stmt.statements)) return RETURNED;
         return null;
     }
     //interpret the class declaration
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
-        environment.define(stmt.name.lexeme, null);
+    public Object visitClassStmt(Stmt.Class stmt) {
+        define(stmt.name, stmt.slot, stmt.boxed, null);
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -187,92 +414,197 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 throw new RuntimeError(stmt.name, "Super must be a template.");
             }
         }
+        //methods capture the superclass from the slot the resolver set aside for it
+        if (stmt.superclass != null) {
+            stack[fp + stmt.superSlot] = superclass;
+        }
         Map<String, JEZFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            JEZFunction function = new JEZFunction(method, environment, method.name.lexeme.equals("initialize"));
+            JEZFunction function = new JEZFunction(method, captureUpvalues(method),
+                    method.name.lexeme.equals("initialize"));
             methods.put(method.name.lexeme, function);
         };
         JEZClass klass = new JEZClass(stmt.name.lexeme, (JEZClass) superclass, methods);
-        if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
-        }
-        if (superclass != null) {
-            environment = environment.enclosing;
-        }
-        environment.assign(stmt.name, klass);
+        store(stmt.name, stmt.slot, stmt.boxed, klass);
         return null;
     }
 
     //visit statements
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression);
+    public Object visitExpressionStmt(Stmt.Expression stmt) {
+        discard(stmt.expression);
         return null;
     }
+    //for an expression whose value is unused, so an assignment to an unboxed local never boxes
+    private void discard(Expr expr) {
+        if (expr instanceof Expr.Assign && ((Expr.Assign)expr).unboxed) {
+            number(expr);
+        } else {
+            evaluate(expr);
+        }
+    }
     //visit function statement
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        JEZFunction function = new JEZFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+    public Object visitFunctionStmt(Stmt.Function stmt) {
+        //a boxed name gets its cell first so the function can capture itself
+        define(stmt.name, stmt.slot, stmt.boxed, null);
+        JEZFunction function = new JEZFunction(stmt, captureUpvalues(stmt), false);
+        store(stmt.name, stmt.slot, stmt.boxed, function);
         return null;
     }
     //interpret if and else statements
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Object visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            if (execute(stmt.thenBranch)) return RETURNED;
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            if (execute(stmt.elseBranch)) return RETURNED;
         }
         return null;
     }
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Object visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
         return null;
     }
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Object visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tail) {
+            returnValue = tailCall((Expr.Call)stmt.value);
+            return RETURNED;
+        }
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
-        throw new Return(value);
+        returnValue = value;
+        return RETURNED;
     }
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Object visitVarStmt(Stmt.Var stmt) {
+        if (stmt.unboxed) {
+            double value = number(stmt.initializer);
+            numbers[fp + stmt.slot] = value;
+            return null;
+        }
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
-        environment.define(stmt.name.lexeme, value);
+        define(stmt.name, stmt.slot, stmt.boxed, value);
         return null;
     }
+    //globals are defined by name, locals by the stack slot the resolver gave them, in a new cell when boxed
+    private void define(Token name, int slot, boolean boxed, Object value) {
+        if (slot < 0) {
+            globals.define(name.lexeme, value);
+        } else if (boxed) {
+            stack[fp + slot] = new Cell(value);
+        } else {
+            stack[fp + slot] = value;
+        }
+    }
+    //fill in a function or template name defined just before, keeping its cell
+    private void store(Token name, int slot, boolean boxed, Object value) {
+        if (slot < 0) {
+            globals.assign(name, value);
+        } else if (boxed) {
+            ((Cell)stack[fp + slot]).value = value;
+        } else {
+            stack[fp + slot] = value;
+        }
+    }
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+    public Object visitWhileStmt(Stmt.While stmt) {
+        Stmt.Function function = running;
+        for (;;) {
+            MethodHandle compiled = jit ? JITCompiler.osr(stmt, sp - fp) : null;
+            if (compiled != null) return enterLoop(compiled);
+            if (!isTruthy(evaluate(stmt.condition))) return null;
+            if (execute(stmt.body)) return RETURNED;
+            if (stmt.increment != null) discard(stmt.increment);
+            if (function != null) JITCompiler.backEdge(function);
+        }
+    }
+    //on-stack replacement, the running frame moves into the compiled loop and back once it ends
+    private Object enterLoop(MethodHandle compiled) {
+        int size = sp - fp;
+        Object[] frame = new Object[2 * size];
+        System.arraycopy(stack, fp, frame, 0, size);
+        for (int slot = 0; slot < size; slot++) {
+            frame[size + slot] = numbers[fp + slot];
+        }
+        Object result = JITRuntime.run(compiled, this, frame);
+        if (result != JITRuntime.LOOP_DONE) {
+            returnValue = result;
+            return RETURNED;
+        }
+        System.arraycopy(frame, 0, stack, fp, size);
+        for (int slot = 0; slot < size; slot++) {
+            numbers[fp + slot] = (double) frame[size + slot];
         }
         return null;
     }
     //allow for using var by assigning it
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
+        if (expr.unboxed) return number(expr);
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.slot < 0) {
+            global(expr).value = value;
+        } else if (expr.boxed) {
+            Object cell = expr.upvalue ? upvalues[expr.slot] : stack[fp + expr.slot];
+            ((Cell)cell).value = value;
         } else {
-            globals.assign(expr.name, value);
+            stack[fp + expr.slot] = value;
         }
         return value;
     }
-    //return binary expressions answers
+    //return binary expressions answers, through the fast path the node specialized to when it still fits
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.numeric) return numbers(expr.operator.type, number(expr.left), number(expr.right));
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        switch (expr.specialized) {
+            case NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return numbers(expr.operator.type, (double)left, (double)right);
+                }
+                expr.specialized = GENERIC;
+                break;
+            case STRINGS:
+                if (left instanceof String && right instanceof String) return (String)left + (String)right;
+                expr.specialized = GENERIC;
+                break;
+            case UNINITIALIZED:
+                expr.specialized = specialize(expr.operator.type, left, right);
+                break;
+        }
+        return binary(expr, left, right);
+    }
+    //equality stays generic, Double.equals tells 0 from -0 and matches NaN where == would not
+    private static int specialize(TokenType operator, Object left, Object right) {
+        if (operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL) return GENERIC;
+        if (left instanceof Double && right instanceof Double) return NUMBERS;
+        if (operator == TokenType.PLUS && left instanceof String && right instanceof String) return STRINGS;
+        return GENERIC;
+    }
+    private static Object numbers(TokenType operator, double left, double right) {
+        switch (operator) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case MINUS: return left - right;
+            case PLUS: return left + right;
+            case SLASH: return left / right;
+            case STAR: return left * right;
+        }
+        return null;
+    }
+    //the checked path every node starts on and falls back to for good once its operands vary
+    static Object binary(Expr.Binary expr, Object left, Object right) {
         switch (expr.operator.type) {
             case GREATER:
                 checkNumberOperands(expr.operator, left, right);
@@ -314,33 +646,120 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
     //visit function call
+    //obj.name(args) runs the method with obj as receiver instead of binding it first
+    //anything else is called right here, so a call costs no java frames between this one and the callee's
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
-
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        try {
+            Object callee;
+            if (expr.callee instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get)expr.callee;
+                Object object = evaluate(get.object);
+                if (!(object instanceof JEZInstance)) {
+                    throw new RuntimeError(get.name, "Only objects have properties.");
+                }
+                JEZInstance instance = (JEZInstance)object;
+                JEZFunction method = get.cache.method(instance, get.name);
+                if (method != null) return callMethod(method, instance, expr);
+                callee = get.cache.get(instance, get.name);
+            } else if (expr.callee instanceof Expr.Super) {
+                Expr.Super method = (Expr.Super)expr.callee;
+                return callMethod(superMethod(method), thisForSuper(method), expr);
+            } else {
+                callee = evaluate(expr.callee);
+            }
+            //the site's cache skips the callable and arity checks for callees it has seen
+            List<Expr> arguments = expr.arguments;
+            switch (arguments.size()) {
+                case 0:
+                    return expr.cache.check(callee, 0, expr.paren).call0(this);
+                case 1: {
+                    Object a = evaluate(arguments.get(0));
+                    return expr.cache.check(callee, 1, expr.paren).call1(this, a);
+                }
+                case 2: {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    return expr.cache.check(callee, 2, expr.paren).call2(this, a, b);
+                }
+                case 3: {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    Object c = evaluate(arguments.get(2));
+                    return expr.cache.check(callee, 3, expr.paren).call3(this, a, b, c);
+                }
+                case 4: {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    Object c = evaluate(arguments.get(2));
+                    Object d = evaluate(arguments.get(3));
+                    return expr.cache.check(callee, 4, expr.paren).call4(this, a, b, c, d);
+                }
+            }
+            List<Object> values = evaluateArguments(expr);
+            return expr.cache.check(callee, values.size(), expr.paren).call(this, values);
+        } catch (StackOverflowError error) {
+            //the java stack ran out somewhere under this call, reported as the VMs report running out of frames
+            throw new RuntimeError(expr.paren, "Stack overflow.");
         }
-        //runtime error
-        if (!(callee instanceof JEZCallable)) {
-            throw new RuntimeError(expr.paren,
-                    "Can only call functions and templates.");
+    }
+    //the callee and arguments are evaluated as visitCallExpr would, only the call itself is put off
+    private Object tailCall(Expr.Call expr) {
+        Object callee;
+        JEZInstance instance = null;
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+            if (!(object instanceof JEZInstance)) {
+                throw new RuntimeError(get.name, "Only objects have properties.");
+            }
+            JEZFunction method = get.cache.method((JEZInstance)object, get.name);
+            if (method == null) {
+                callee = get.cache.get((JEZInstance)object, get.name);
+            } else {
+                callee = method;
+                instance = (JEZInstance)object;
+            }
+        } else if (expr.callee instanceof Expr.Super) {
+            Expr.Super method = (Expr.Super)expr.callee;
+            callee = superMethod(method);
+            instance = thisForSuper(method);
+        } else {
+            callee = evaluate(expr.callee);
         }
-
-        JEZCallable function = (JEZCallable)callee;
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "There needs to be " +
-                    function.arity() + " arguments but you gave " +
-                    arguments.size() + ".");
+        List<Object> arguments = evaluateArguments(expr);
+        JEZCallable function = expr.cache.check(callee, arguments.size(), expr.paren);
+        return tailCall(function, instance, arguments);
+    }
+    //up to four arguments are held in locals and passed to the fixed-arity entry points
+    private Object callMethod(JEZFunction method, JEZInstance instance, Expr.Call expr) {
+        List<Expr> arguments = expr.arguments;
+        int count = arguments.size();
+        if (count > 4) return callMethod(method, instance, evaluateArguments(expr), expr);
+        Object a = count > 0 ? evaluate(arguments.get(0)) : null;
+        Object b = count > 1 ? evaluate(arguments.get(1)) : null;
+        Object c = count > 2 ? evaluate(arguments.get(2)) : null;
+        Object d = count > 3 ? evaluate(arguments.get(3)) : null;
+        expr.cache.check(method, count, expr.paren);
+        return method.call(this, instance, count, a, b, c, d);
+    }
+    //compiled code evaluates the arguments itself and joins here
+    Object callMethod(JEZFunction method, JEZInstance instance, List<Object> arguments, Expr.Call expr) {
+        expr.cache.check(method, arguments.size(), expr.paren);
+        return method.call(this, instance, arguments);
+    }
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expr.arguments.get(i));
         }
-        return function.call(this, arguments);
+        return Arrays.asList(arguments);
     }
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof JEZInstance) {
-            return ((JEZInstance) object).get(expr.name);
+            return expr.cache.get((JEZInstance) object, expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only objects have properties.");
@@ -6,19 +6,48 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 //setup
 public class JEZ {
     private static final Interpreter interpreter = new Interpreter();
+    private static VM vm = null;
+    private static RegisterVM registerVm = null;
+    private static StacklessInterpreter stackless = null;
+    private static boolean verbose = false;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: JEZ [script]");
+        //--vm runs scripts on the bytecode backend instead of the tree-walker, --no-jit keeps hot functions in the tree-walker
+        //--register runs them on the register machine instead, benchmark/registers.jez compares the two
+        //--stackless runs the tree-walker on its own task stack, for recursion deeper than the java stack allows
+        //--switch has the tree-walker switch on node kinds rather than dispatch through accept, benchmark/dispatch.jez compares them
+        //--verbose reports what the optimizer did, and under --stackless the calls a runtime error unwound
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                vm = new VM();
+            } else if (arg.equals("--register")) {
+                registerVm = new RegisterVM();
+            } else if (arg.equals("--stackless")) {
+                stackless = new StacklessInterpreter();
+            } else if (arg.equals("--switch")) {
+                interpreter.switchDispatch = true;
+            } else if (arg.equals("--no-jit")) {
+                interpreter.jit = false;
+            } else if (arg.equals("--verbose")) {
+                verbose = true;
+            } else {
+                files.add(arg);
+            }
+        }
+        if (stackless != null) stackless.traceErrors = verbose;
+        if (files.size() > 1) {
+            System.out.println("Usage: JEZ [--vm] [--register] [--stackless] [--no-jit] [--switch] [--verbose] [script]");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        } else if (files.size() == 1) {
+            runFile(files.get(0));
         } else {
             runPrompt();
         }
@@ -51,10 +80,20 @@ public class JEZ {
         Parser parser = new Parser(tokens);
         List<Stmt> statements = parser.parse();
         if (hadError) return;
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
         if (hadError) return;
-        interpreter.interpret(statements);
+        statements = new Optimizer(verbose, resolver.stackSize()).optimize(statements);
+        new TypeInference().infer(statements);
+        if (vm != null) {
+            vm.interpret(statements);
+        } else if (registerVm != null) {
+            registerVm.interpret(statements);
+        } else if (stackless != null) {
+            stackless.interpret(statements, resolver.stackSize());
+        } else {
+            interpreter.interpret(statements, resolver.stackSize());
+        }
     }
 
     //print error message
@@ -65,7 +104,7 @@ public class JEZ {
     //print runtime error
     static void runtimeError(RuntimeError error) {
         System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
+                "\n[line " + error.line + "]");
         hadRuntimeError = true;
     }
 
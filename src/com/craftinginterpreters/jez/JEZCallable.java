@@ -1,8 +1,27 @@
 package com.craftinginterpreters.jez;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 interface JEZCallable {
     int arity();
     //call interpreter to return value that call expression produces
     Object call(Interpreter interpreter, List<Object> arguments);
+    //fixed-arity entry points for calls with up to four arguments, call above stays the varargs fallback
+    //the defaults build the list, functions, templates and natives override them to skip it
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Arrays.asList(a));
+    }
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+    default Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return call(interpreter, Arrays.asList(a, b, c, d));
+    }
 }
@@ -1,24 +1,28 @@
 package com.craftinginterpreters.jez;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class JEZClass implements JEZCallable {
     final String name;
     final JEZClass superclass;
+    //own methods plus every inherited one they do not override, built once since templates never change
     private final Map<String, JEZFunction> methods;
+    private final JEZFunction initializer;
+    //layout new instances start from
+    final Shape rootShape = new Shape();
     JEZClass(String name, JEZClass superclass, Map<String, JEZFunction> methods) {
         this.superclass = superclass;
         this.name = name;
-        this.methods = methods;
-    }
-    JEZFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
+        this.methods = new HashMap<>();
         if (superclass != null) {
-            return superclass.findMethod(name);
+            this.methods.putAll(superclass.methods);
         }
-        return null;
+        this.methods.putAll(methods);
+        this.initializer = this.methods.get("initialize");
+    }
+    JEZFunction findMethod(String name) {
+        return methods.get(name);
     }
     @Override
     public String toString() {
@@ -27,17 +31,42 @@ class JEZClass implements JEZCallable {
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         JEZInstance instance = new JEZInstance(this);
-        JEZFunction initializer = findMethod("initialize");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.call(interpreter, instance, arguments);
+        }
+        return instance;
+    }
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return construct(interpreter, 0, null, null, null, null);
+    }
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return construct(interpreter, 1, a, null, null, null);
+    }
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return construct(interpreter, 2, a, b, null, null);
+    }
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return construct(interpreter, 3, a, b, c, null);
+    }
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        return construct(interpreter, 4, a, b, c, d);
+    }
+    private JEZInstance construct(Interpreter interpreter, int count, Object a, Object b, Object c, Object d) {
+        JEZInstance instance = new JEZInstance(this);
+        if (initializer != null) {
+            initializer.call(interpreter, instance, count, a, b, c, d);
         }
         return instance;
     }
 
     @Override
     public int arity() {
-        JEZFunction initializer = findMethod("initialize");
         if (initializer == null) return 0;
         return initializer.arity();
     }
-}
\ No newline at end of file
+}
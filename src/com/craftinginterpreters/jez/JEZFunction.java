@@ -1,20 +1,29 @@
 package com.craftinginterpreters.jez;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
 import java.util.List;
 //allows function calls
 class JEZFunction implements JEZCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Stmt.Function declaration;
+    //values and cells the function closed over, in the order of declaration.upvalues
+    final Object[] upvalues;
+    final boolean isInitializer;
+    //instance a method was read off as a value, null for plain functions
+    final JEZInstance receiver;
 
-    JEZFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    JEZFunction(Stmt.Function declaration, Object[] upvalues, boolean isInitializer) {
+        this(declaration, upvalues, isInitializer, null);
+    }
+    private JEZFunction(Stmt.Function declaration, Object[] upvalues, boolean isInitializer,
+                        JEZInstance receiver) {
         this.isInitializer = isInitializer;
-        this.closure = closure;
+        this.upvalues = upvalues;
         this.declaration = declaration;
+        this.receiver = receiver;
     }
+    //only needed when a method is used as a value, calls pass the receiver directly
     JEZFunction bind(JEZInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new JEZFunction(declaration, environment, isInitializer);
+        return new JEZFunction(declaration, upvalues, isInitializer, instance);
     }
     @Override
     public String toString() {
@@ -26,19 +35,95 @@ class JEZFunction implements JEZCallable {
         return declaration.parameters.size();
     }
 
-    //each function gets its own environment
+    //generated code for the body, only plain functions are compiled
+    MethodHandle compiled() {
+        return receiver == null ? declaration.compiled : null;
+    }
+    //the receiver-less call, entered here rather than through the overload below so it costs one java frame
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.parameters.size(); i++) {
-            environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+        MethodHandle compiled = hot(interpreter, receiver);
+        if (compiled != null) return interpreter.trampoline(JITRuntime.run(compiled, interpreter, arguments.toArray()));
+        boolean returned = interpreter.executeCall(declaration, upvalues, receiver, arguments);
+        return interpreter.trampoline(result(interpreter, receiver, returned));
+    }
+    //the fixed-arity entry points enter the frame themselves, going through the overload below would cost a java frame
+    @Override
+    public Object call0(Interpreter interpreter) {
+        MethodHandle compiled = hot(interpreter, receiver);
+        if (compiled != null) {
+            return interpreter.trampoline(JITRuntime.run(compiled, interpreter, new Object[0]));
         }
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+        boolean returned = interpreter.executeCall(declaration, upvalues, receiver, 0, null, null, null, null);
+        return interpreter.trampoline(result(interpreter, receiver, returned));
+    }
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        MethodHandle compiled = hot(interpreter, receiver);
+        if (compiled != null) {
+            return interpreter.trampoline(JITRuntime.run(compiled, interpreter, new Object[] {a}));
         }
-        if (isInitializer) return closure.getAt(0, "this");
+        boolean returned = interpreter.executeCall(declaration, upvalues, receiver, 1, a, null, null, null);
+        return interpreter.trampoline(result(interpreter, receiver, returned));
+    }
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        MethodHandle compiled = hot(interpreter, receiver);
+        if (compiled != null) {
+            return interpreter.trampoline(JITRuntime.run(compiled, interpreter, new Object[] {a, b}));
+        }
+        boolean returned = interpreter.executeCall(declaration, upvalues, receiver, 2, a, b, null, null);
+        return interpreter.trampoline(result(interpreter, receiver, returned));
+    }
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        MethodHandle compiled = hot(interpreter, receiver);
+        if (compiled != null) {
+            return interpreter.trampoline(JITRuntime.run(compiled, interpreter, new Object[] {a, b, c}));
+        }
+        boolean returned = interpreter.executeCall(declaration, upvalues, receiver, 3, a, b, c, null);
+        return interpreter.trampoline(result(interpreter, receiver, returned));
+    }
+    @Override
+    public Object call4(Interpreter interpreter, Object a, Object b, Object c, Object d) {
+        MethodHandle compiled = hot(interpreter, receiver);
+        if (compiled != null) {
+            return interpreter.trampoline(JITRuntime.run(compiled, interpreter, new Object[] {a, b, c, d}));
+        }
+        boolean returned = interpreter.executeCall(declaration, upvalues, receiver, 4, a, b, c, d);
+        return interpreter.trampoline(result(interpreter, receiver, returned));
+    }
+    //each call gets its own stack frame, methods keep 'this' in slot zero ahead of the parameters
+    //a tail call the body ends in runs on the trampoline once the frame is gone
+    Object call(Interpreter interpreter, JEZInstance instance, List<Object> arguments) {
+        return interpreter.trampoline(enter(interpreter, instance, arguments));
+    }
+    //the first count of a, b, c and d are the arguments
+    Object call(Interpreter interpreter, JEZInstance instance, int count, Object a, Object b, Object c, Object d) {
+        MethodHandle compiled = hot(interpreter, instance);
+        if (compiled != null) {
+            Object[] arguments = Arrays.copyOf(new Object[] {a, b, c, d}, count);
+            return interpreter.trampoline(JITRuntime.run(compiled, interpreter, arguments));
+        }
+        boolean returned = interpreter.executeCall(declaration, upvalues, instance, count, a, b, c, d);
+        return interpreter.trampoline(result(interpreter, instance, returned));
+    }
+    //runs the body once and leaves a tail call it ends in pending, a null instance means the bound receiver
+    Object enter(Interpreter interpreter, JEZInstance instance, List<Object> arguments) {
+        if (instance == null) instance = receiver;
+        MethodHandle compiled = hot(interpreter, instance);
+        if (compiled != null) return JITRuntime.run(compiled, interpreter, arguments.toArray());
+        boolean returned = interpreter.executeCall(declaration, upvalues, instance, arguments);
+        return result(interpreter, instance, returned);
+    }
+    private Object result(Interpreter interpreter, JEZInstance instance, boolean returned) {
+        if (returned) return interpreter.takeReturnValue();
+        if (isInitializer) return instance;
         return null;
     }
+    //compiled code for a plain function, counting the call toward compiling it
+    private MethodHandle hot(Interpreter interpreter, JEZInstance instance) {
+        if (instance != null || !interpreter.jit) return null;
+        return JITCompiler.hot(declaration);
+    }
 }
\ No newline at end of file
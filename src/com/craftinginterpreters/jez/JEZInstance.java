@@ -1,27 +1,68 @@
 package com.craftinginterpreters.jez;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 
 class JEZInstance {
-    private JEZClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final JEZClass klass;
+    //layout of values, null once the instance has fallen back to a map
+    Shape shape;
+    Object[] values;
+    private Map<String, Object> fields = null;
 
     JEZInstance(JEZClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        this.values = new Object[shape.capacity];
     }
 
     //to look up a property on an instance
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
+        if (shape != null) {
+            int index = shape.indexOf(name.lexeme);
+            if (index >= 0) return values[index];
+        } else if (fields.containsKey(name.lexeme)) {
             return fields.get(name.lexeme);
         }
         JEZFunction method = klass.findMethod(name.lexeme);
         if (method != null) return method.bind(this);
         throw new RuntimeError(name, "You did not define '" + name.lexeme + "'.");
     }
+    //method a call on this name runs, null when a field answers to the name first
+    JEZFunction method(Token name) {
+        if (shape != null ? shape.indexOf(name.lexeme) >= 0 : fields.containsKey(name.lexeme)) {
+            return null;
+        }
+        JEZFunction method = klass.findMethod(name.lexeme);
+        if (method != null) return method;
+        throw new RuntimeError(name, "You did not define '" + name.lexeme + "'.");
+    }
     void set(Token name, Object value) {
+        if (shape != null) {
+            int index = shape.indexOf(name.lexeme);
+            if (index >= 0) {
+                values[index] = value;
+                return;
+            }
+            Shape next = shape.addField(name.lexeme);
+            if (next != null) {
+                addField(next, value);
+                return;
+            }
+            fields = shape.toMap(values);
+            shape = null;
+            values = null;
+        }
         fields.put(name.lexeme, value);
     }
+    //move to the next layout, the new field always goes at the end
+    void addField(Shape next, Object value) {
+        int index = next.size - 1;
+        if (index >= values.length) {
+            values = Arrays.copyOf(values, Math.max(4, values.length * 2));
+        }
+        values[index] = value;
+        shape = next;
+    }
     @Override
     public String toString() {
         return klass.name + " instance";
@@ -0,0 +1,639 @@
+package com.craftinginterpreters.jez;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.craftinginterpreters.jez.ClassFileWriter.*;
+
+//compiles hot plain functions to JVM classes, locals become JVM locals and numbers stay unboxed doubles
+//between operators and in unboxed locals, anything the translation does not cover leaves the function in the tree-walker
+class JITCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int THRESHOLD = 1000;
+    //a function called rarely but looping for long gets compiled for its later calls
+    static final int LOOP_THRESHOLD = 10000;
+    //a loop running this long gets compiled on its own and the running frame moved into it
+    static final int OSR_THRESHOLD = 10000;
+    private static final String RUNTIME = "com/craftinginterpreters/jez/JITRuntime";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String BOOLEAN = "java/lang/Boolean";
+    private static final String OBJECT = "java/lang/Object";
+    private static final Loader loader = new Loader();
+    //compiling happens on a daemon thread of its own, the tree-walker keeps running a queued function
+    //until compiled is set, so it never waits on the JIT, and compiles only ever run one at a time
+    //on a single processor the compile shares the core with the interpreter, so a short hot script can finish slower
+    private static final ExecutorService compiler = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "jez-jit");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static int compiledCount = 0;
+
+    //null when compiling a loop on its own
+    private final Stmt.Function function;
+    //slots in the frame the code runs on
+    private final int stackSize;
+    private final String className;
+    private final ClassFileWriter writer;
+    private final ClassFileWriter.Code code;
+    //tokens, nodes and numbers the generated code reads from its constants field
+    private final List<Object> constants = new ArrayList<>();
+    //JVM locals past the function's own slots, for values held across evaluating an operand
+    private int nextTemp;
+
+    //generated classes share a loader of their own, apart from the interpreter's classes
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(JITCompiler.class.getClassLoader());
+        }
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+    //something in the body the JIT does not translate
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private JITCompiler(Stmt.Function function, String name, int stackSize) {
+        this.function = function;
+        this.stackSize = stackSize;
+        this.className = "com/craftinginterpreters/jez/jit/" + name + "$" + compiledCount++;
+        this.writer = new ClassFileWriter(className);
+        this.code = writer.method(ACC_PUBLIC | ACC_STATIC, "run",
+                "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;");
+        this.nextTemp = numberLocal(stackSize);
+    }
+    //counts a call to a plain function and queues it once it is hot, null while it stays interpreted
+    static MethodHandle hot(Stmt.Function function) {
+        if (function.calls < 0) return function.compiled;
+        if (++function.calls >= THRESHOLD) queue(function);
+        return function.compiled;
+    }
+    //counts a loop iteration the tree-walker ran in a plain function
+    static void backEdge(Stmt.Function function) {
+        if (function.calls >= 0 && ++function.backEdges >= LOOP_THRESHOLD) queue(function);
+    }
+    //counts an iteration of a loop the tree-walker is running in a frame of stackSize slots
+    //and queues the loop once it is hot, null while it stays interpreted
+    static MethodHandle osr(Stmt.While loop, int stackSize) {
+        if (loop.backEdges < 0) return loop.compiled;
+        if (++loop.backEdges >= OSR_THRESHOLD) {
+            loop.backEdges = -1;
+            submit(() -> loop.compiled = compile(loop, stackSize));
+        }
+        return loop.compiled;
+    }
+    private static void queue(Stmt.Function function) {
+        function.calls = -1;
+        submit(() -> function.compiled = compile(function));
+    }
+    //the volatile write of compiled in the task publishes the finished class to the interpreter thread
+    private static void submit(Runnable task) {
+        compiler.execute(task);
+    }
+    private static MethodHandle compile(Stmt.Function function) {
+        //closures and their captured cells stay in the tree-walker
+        if (function.upvalues.length > 0 || function.boxedParameters.length > 0) return null;
+        try {
+            return new JITCompiler(function, function.name.lexeme, function.stackSize).compile();
+        } catch (Unsupported | UncheckedIOException | ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+    private static MethodHandle compile(Stmt.While loop, int stackSize) {
+        try {
+            return new JITCompiler(null, "loop", stackSize).compile(loop);
+        } catch (Unsupported | UncheckedIOException | ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+    //run(interpreter, arguments) keeps the interpreter in local 0, the arguments in 1 and slot n in 2 + n
+    //an unboxed slot n is the double in the two locals at numberLocal(n) instead
+    private MethodHandle compile() throws ReflectiveOperationException {
+        writer.field(ACC_PUBLIC | ACC_STATIC, "constants", "[Ljava/lang/Object;");
+        int parameters = function.parameters.size();
+        for (int slot = 0; slot < stackSize; slot++) {
+            if (slot < parameters) {
+                code.aload(1);
+                code.iconst(slot);
+                code.op(AALOAD, -1);
+            } else {
+                code.op(ACONST_NULL, 1);
+            }
+            code.astore(local(slot));
+            //so the verifier sees a double in every unboxed slot, even on paths before its declaration
+            if (slot >= parameters) {
+                code.op(DCONST_0, 2);
+                code.dstore(numberLocal(slot));
+            }
+        }
+        for (Stmt statement : function.body) {
+            statement.accept(this);
+        }
+        code.op(ACONST_NULL, 1);
+        code.op(ARETURN, -1);
+        return load();
+    }
+    //run(interpreter, frame) for a loop entered with a frame already running, at the check of its condition
+    //frame holds the slots followed by the unboxed slots as Doubles, it gets them back when the loop ends
+    //and the result is LOOP_DONE then, anything else is the value of a return that ran in the body
+    private MethodHandle compile(Stmt.While loop) throws ReflectiveOperationException {
+        writer.field(ACC_PUBLIC | ACC_STATIC, "constants", "[Ljava/lang/Object;");
+        for (int slot = 0; slot < stackSize; slot++) {
+            code.aload(1);
+            code.iconst(slot);
+            code.op(AALOAD, -1);
+            code.astore(local(slot));
+            code.aload(1);
+            code.iconst(stackSize + slot);
+            code.op(AALOAD, -1);
+            unbox();
+            code.dstore(numberLocal(slot));
+        }
+        visitWhileStmt(loop);
+        for (int slot = 0; slot < stackSize; slot++) {
+            code.aload(1);
+            code.iconst(slot);
+            code.aload(local(slot));
+            code.op(AASTORE, -3);
+            code.aload(1);
+            code.iconst(stackSize + slot);
+            code.dload(numberLocal(slot));
+            box();
+            code.op(AASTORE, -3);
+        }
+        code.getstatic(RUNTIME, "LOOP_DONE", "Ljava/lang/Object;");
+        code.op(ARETURN, -1);
+        return load();
+    }
+    private MethodHandle load() throws ReflectiveOperationException {
+        byte[] bytes = writer.toByteArray();
+        Class<?> compiled = loader.define(className.replace('/', '.'), bytes);
+        compiled.getField("constants").set(null, constants.toArray());
+        return MethodHandles.publicLookup().findStatic(compiled, "run",
+                MethodType.methodType(Object.class, Object.class, Object[].class));
+    }
+    private static int local(int slot) {
+        return 2 + slot;
+    }
+    private int numberLocal(int slot) {
+        return local(stackSize) + 2 * slot;
+    }
+    private int temp() {
+        return nextTemp++;
+    }
+    private void constant(Object value) {
+        int index = 0;
+        while (index < constants.size() && constants.get(index) != value) index++;
+        if (index == constants.size()) constants.add(value);
+        code.getstatic(className, "constants", "[Ljava/lang/Object;");
+        code.iconst(index);
+        code.op(AALOAD, -1);
+    }
+    private void emit(Expr expr) {
+        expr.accept(this);
+    }
+    private void runtime(String name, String descriptor) {
+        code.invokestatic(RUNTIME, name, descriptor);
+    }
+
+    //numbers: expressions that produce a double whenever they finish without an error
+    private static boolean isNumber(Expr expr) {
+        if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+        if (expr instanceof Expr.Grouping) return isNumber(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+        if (expr instanceof Expr.Variable) return ((Expr.Variable)expr).unboxed;
+        if (expr instanceof Expr.Assign) return ((Expr.Assign)expr).unboxed;
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return true;
+                case PLUS:
+                    return binary.numeric || (isNumber(binary.left) && isNumber(binary.right));
+            }
+        }
+        return false;
+    }
+    //leaves an unboxed double for an expression isNumber accepted
+    private void number(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            code.ldc((Double)((Expr.Literal)expr).value);
+        } else if (expr instanceof Expr.Grouping) {
+            number(((Expr.Grouping)expr).expression);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            operand(unary.right, unary.operator, unary.numeric);
+            code.op(DNEG, 0);
+        } else if (expr instanceof Expr.Variable) {
+            code.dload(numberLocal(((Expr.Variable)expr).slot));
+        } else if (expr instanceof Expr.Assign) {
+            //type inference proved the value a number, though not always in a form isNumber accepts
+            Expr.Assign assign = (Expr.Assign)expr;
+            operand(assign.value, null, true);
+            code.op(DUP2, 2);
+            code.dstore(numberLocal(assign.slot));
+        } else {
+            Expr.Binary binary = (Expr.Binary)expr;
+            operands(binary);
+            switch (binary.operator.type) {
+                case PLUS: code.op(DADD, -2); break;
+                case MINUS: code.op(DSUB, -2); break;
+                case STAR: code.op(DMUL, -2); break;
+                case SLASH: code.op(DDIV, -2); break;
+            }
+        }
+    }
+    //a single operand as a double, guarded unless it is known to be a number
+    //proven is set when type inference showed the value is always a Double, so only the cast remains
+    private void operand(Expr expr, Token operator, boolean proven) {
+        if (isNumber(expr)) {
+            number(expr);
+            return;
+        }
+        emit(expr);
+        if (proven) {
+            unbox();
+            return;
+        }
+        constant(operator);
+        runtime("number", "(Ljava/lang/Object;Ljava/lang/Object;)D");
+    }
+    //both operands as doubles, evaluated left to right before either is checked
+    private void operands(Expr.Binary expr) {
+        if (expr.numeric || isNumber(expr.left)) {
+            operand(expr.left, expr.operator, expr.numeric);
+            operand(expr.right, expr.operator, expr.numeric);
+            return;
+        }
+        int left = temp();
+        int right = temp();
+        emit(expr.left);
+        code.astore(left);
+        emit(expr.right);
+        code.astore(right);
+        code.aload(left);
+        code.aload(right);
+        constant(expr.operator);
+        runtime("checkNumbers", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)V");
+        code.aload(left);
+        unbox();
+        code.aload(right);
+        unbox();
+        nextTemp -= 2;
+    }
+    private void unbox() {
+        code.type(CHECKCAST, DOUBLE);
+        code.invokevirtual(DOUBLE, "doubleValue", "()D");
+    }
+    private void box() {
+        code.invokestatic(DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+    }
+
+    //conditions: jumps to target when the expression's truthiness equals when, no booleans are boxed
+    private void branch(Expr expr, boolean when, ClassFileWriter.Label target) {
+        if (expr instanceof Expr.Grouping) {
+            branch(((Expr.Grouping)expr).expression, when, target);
+            return;
+        }
+        if (expr instanceof Expr.Unary && ((Expr.Unary)expr).operator.type == TokenType.BANG) {
+            branch(((Expr.Unary)expr).right, !when, target);
+            return;
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            boolean or = logical.operator.type == TokenType.OR;
+            if (or == when) {
+                branch(logical.left, when, target);
+                branch(logical.right, when, target);
+            } else {
+                ClassFileWriter.Label skip = new ClassFileWriter.Label();
+                branch(logical.left, !when, skip);
+                branch(logical.right, when, target);
+                code.mark(skip);
+            }
+            return;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            //dcmpg makes NaN compare greater and dcmpl less, so NaN is false either way
+            switch (binary.operator.type) {
+                case LESS:
+                    operands(binary);
+                    code.op(DCMPG, -3);
+                    code.jump(when ? IFLT : IFGE, target);
+                    return;
+                case LESS_EQUAL:
+                    operands(binary);
+                    code.op(DCMPG, -3);
+                    code.jump(when ? IFLE : IFGT, target);
+                    return;
+                case GREATER:
+                    operands(binary);
+                    code.op(DCMPL, -3);
+                    code.jump(when ? IFGT : IFLE, target);
+                    return;
+                case GREATER_EQUAL:
+                    operands(binary);
+                    code.op(DCMPL, -3);
+                    code.jump(when ? IFGE : IFLT, target);
+                    return;
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    emit(binary.left);
+                    emit(binary.right);
+                    runtime("isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+                    code.jump(when == (binary.operator.type == TokenType.EQUAL_EQUAL) ? IFNE : IFEQ, target);
+                    return;
+            }
+        }
+        emit(expr);
+        runtime("isTruthy", "(Ljava/lang/Object;)Z");
+        code.jump(when ? IFNE : IFEQ, target);
+    }
+    //Boolean.TRUE or FALSE for an expression that only has a truthiness
+    private void bool(Expr expr) {
+        ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        branch(expr, false, isFalse);
+        code.getstatic(BOOLEAN, "TRUE", "Ljava/lang/Boolean;");
+        code.jump(GOTO, end);
+        code.mark(isFalse);
+        code.getstatic(BOOLEAN, "FALSE", "Ljava/lang/Boolean;");
+        code.mark(end);
+    }
+
+    //expressions leave one object on the operand stack
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (expr.unboxed) {
+            number(expr);
+            box();
+            return null;
+        }
+        emit(expr.value);
+        if (expr.slot < 0) {
+            code.aload(0);
+            constant(expr);
+            runtime("assignGlobal", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            return null;
+        }
+        if (expr.upvalue || expr.boxed) throw new Unsupported();
+        code.op(DUP, 1);
+        code.astore(local(expr.slot));
+        return null;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        if (isNumber(expr)) {
+            number(expr);
+            box();
+        } else if (expr.operator.type == TokenType.PLUS) {
+            emit(expr.left);
+            emit(expr.right);
+            constant(expr.operator);
+            runtime("add", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        } else {
+            bool(expr);
+        }
+        return null;
+    }
+    //obj.name(args) finds the method before the arguments run, like the tree-walker's invoke
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, "call");
+        return null;
+    }
+    //name is the runtime helper that makes the call, tailCall for one in tail position
+    private void call(Expr.Call expr, String name) {
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)expr.callee;
+            int object = temp();
+            int callee = temp();
+            emit(get.object);
+            code.astore(object);
+            code.aload(object);
+            constant(get);
+            runtime("findMethod", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            code.op(DUP, 1);
+            code.astore(callee);
+            ClassFileWriter.Label method = new ClassFileWriter.Label();
+            code.jump(IFNONNULL, method);
+            //a field holds the callee, it is called without a receiver
+            code.aload(object);
+            constant(get);
+            runtime("getProperty", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            code.astore(callee);
+            code.op(ACONST_NULL, 1);
+            code.astore(object);
+            code.mark(method);
+            code.aload(0);
+            code.aload(callee);
+            code.aload(object);
+            nextTemp -= 2;
+        } else {
+            if (expr.callee instanceof Expr.Super) throw new Unsupported();
+            code.aload(0);
+            emit(expr.callee);
+            code.op(ACONST_NULL, 1);
+        }
+        code.iconst(expr.arguments.size());
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.iconst(i);
+            emit(expr.arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+        constant(expr);
+        runtime(name, "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;[Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+    }
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        emit(expr.object);
+        constant(expr);
+        runtime("getProperty", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        return null;
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        return expr.expression.accept(this);
+    }
+    //numbers come from the constants field so they are the same objects the tree-walker uses
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            code.op(ACONST_NULL, 1);
+        } else if (expr.value instanceof Boolean) {
+            code.getstatic(BOOLEAN, (Boolean)expr.value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        } else if (expr.value instanceof String) {
+            code.ldc((String)expr.value);
+        } else {
+            constant(expr.value);
+        }
+        return null;
+    }
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        emit(expr.left);
+        code.op(DUP, 1);
+        runtime("isTruthy", "(Ljava/lang/Object;)Z");
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP, -1);
+        emit(expr.right);
+        code.mark(end);
+        return null;
+    }
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        emit(expr.object);
+        code.op(DUP, 1);
+        constant(expr);
+        runtime("checkFields", "(Ljava/lang/Object;Ljava/lang/Object;)V");
+        emit(expr.value);
+        constant(expr);
+        runtime("setProperty", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        return null;
+    }
+    //methods are never compiled, so there is no receiver to reach
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        throw new Unsupported();
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.MINUS) {
+            number(expr);
+            box();
+        } else {
+            emit(expr.right);
+            runtime("not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+        }
+        return null;
+    }
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.slot < 0) {
+            code.aload(0);
+            constant(expr);
+            runtime("getGlobal", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+            return null;
+        }
+        if (expr.upvalue || expr.boxed) throw new Unsupported();
+        if (expr.unboxed) {
+            code.dload(numberLocal(expr.slot));
+            box();
+            return null;
+        }
+        code.aload(local(expr.slot));
+        return null;
+    }
+
+    //statements start and end with an empty operand stack
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        return null;
+    }
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        discard(stmt.expression);
+        return null;
+    }
+    //an unboxed assignment run for its effect alone is never boxed
+    private void discard(Expr expr) {
+        if (expr instanceof Expr.Assign && ((Expr.Assign)expr).unboxed) {
+            number(expr);
+            code.op(POP2, -2);
+            return;
+        }
+        emit(expr);
+        code.op(POP, -1);
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassFileWriter.Label elseBranch = new ClassFileWriter.Label();
+        branch(stmt.condition, false, elseBranch);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            code.mark(elseBranch);
+            return null;
+        }
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.jump(GOTO, end);
+        code.mark(elseBranch);
+        stmt.elseBranch.accept(this);
+        code.mark(end);
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        emit(stmt.expression);
+        runtime("print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            code.op(ACONST_NULL, 1);
+        } else if (stmt.tail) {
+            call((Expr.Call)stmt.value, "tailCall");
+        } else {
+            emit(stmt.value);
+        }
+        code.op(ARETURN, -1);
+        return null;
+    }
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot < 0 || stmt.boxed) throw new Unsupported();
+        if (stmt.unboxed) {
+            operand(stmt.initializer, null, true);
+            code.dstore(numberLocal(stmt.slot));
+            return null;
+        }
+        if (stmt.initializer == null) {
+            code.op(ACONST_NULL, 1);
+        } else {
+            emit(stmt.initializer);
+        }
+        code.astore(local(stmt.slot));
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        ClassFileWriter.Label start = new ClassFileWriter.Label();
+        ClassFileWriter.Label exit = new ClassFileWriter.Label();
+        code.mark(start);
+        branch(stmt.condition, false, exit);
+        stmt.body.accept(this);
+        if (stmt.increment != null) discard(stmt.increment);
+        code.jump(GOTO, start);
+        code.mark(exit);
+        return null;
+    }
+}
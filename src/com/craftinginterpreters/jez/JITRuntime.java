@@ -0,0 +1,119 @@
+package com.craftinginterpreters.jez;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+
+//slow paths and helpers for code the JIT generates
+//generated classes live in their own class loader, so everything they call is public and typed Object
+public final class JITRuntime {
+    private JITRuntime() {}
+
+    //what a loop compiled for on-stack replacement returns when it ends without a return
+    public static final Object LOOP_DONE = new Object();
+
+    //runs a compiled function, which only ever throws unchecked exceptions
+    static Object run(MethodHandle compiled, Interpreter interpreter, Object[] arguments) {
+        try {
+            return (Object) compiled.invokeExact((Object) interpreter, arguments);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    //globals go through the cell each use site caches
+    public static Object getGlobal(Object interpreter, Object variable) {
+        return ((Interpreter) interpreter).global((Expr.Variable) variable).value;
+    }
+    public static Object assignGlobal(Object value, Object interpreter, Object assign) {
+        ((Interpreter) interpreter).global((Expr.Assign) assign).value = value;
+        return value;
+    }
+    public static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+    public static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+    public static boolean isEqual(Object a, Object b) {
+        return Interpreter.isEqual(a, b);
+    }
+    public static Object not(Object value) {
+        return !Interpreter.isTruthy(value);
+    }
+
+    //type guards, the value came out of an operand that is not known to be a number
+    public static double number(Object value, Object operator) {
+        if (value instanceof Double) return (Double) value;
+        throw new RuntimeError((Token) operator, "Everything in equation must be a number.");
+    }
+    public static void checkNumbers(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) return;
+        throw new RuntimeError((Token) operator, "Everything in equation must be a number.");
+    }
+    public static Object add(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (Double) left + (Double) right;
+        }
+        if (left instanceof String && right instanceof String) {
+            return (String) left + (String) right;
+        }
+        throw new RuntimeError((Token) operator,
+                "Addition must be between two numbers or two strings.");
+    }
+
+    //properties go through the same inline caches as the tree-walker
+    public static Object getProperty(Object object, Object get) {
+        Expr.Get expr = (Expr.Get) get;
+        if (object instanceof JEZInstance) {
+            return expr.cache.get((JEZInstance) object, expr.name);
+        }
+        throw new RuntimeError(expr.name, "Only objects have properties.");
+    }
+    public static void checkFields(Object object, Object set) {
+        if (object instanceof JEZInstance) return;
+        throw new RuntimeError(((Expr.Set) set).name, "Only objects have fields.");
+    }
+    public static Object setProperty(Object object, Object value, Object set) {
+        Expr.Set expr = (Expr.Set) set;
+        expr.cache.set((JEZInstance) object, expr.name, value);
+        return value;
+    }
+    //method obj.name(args) runs with obj as receiver, null when a field holds the callee
+    public static Object findMethod(Object object, Object get) {
+        Expr.Get expr = (Expr.Get) get;
+        if (!(object instanceof JEZInstance)) {
+            throw new RuntimeError(expr.name, "Only objects have properties.");
+        }
+        return expr.cache.method((JEZInstance) object, expr.name);
+    }
+
+    //receiver is null for anything but a method found by findMethod
+    //compiled functions call each other straight through their handles
+    public static Object call(Object interpreter, Object callee, Object receiver, Object[] arguments,
+                              Object call) {
+        Interpreter running = (Interpreter) interpreter;
+        Expr.Call expr = (Expr.Call) call;
+        try {
+            if (receiver != null) {
+                return running.callMethod((JEZFunction) callee, (JEZInstance) receiver, Arrays.asList(arguments), expr);
+            }
+            JEZCallable function = expr.cache.check(callee, arguments.length, expr.paren);
+            if (function instanceof JEZFunction) {
+                MethodHandle compiled = ((JEZFunction) function).compiled();
+                if (compiled != null) return running.trampoline(run(compiled, running, arguments));
+            }
+            return function.call(running, Arrays.asList(arguments));
+        } catch (StackOverflowError error) {
+            //compiled recursion runs out of java stack like the tree-walker's, and fails the same way
+            throw new RuntimeError(expr.paren, "Stack overflow.");
+        }
+    }
+    //a call in tail position, a function is left pending for the trampoline as in the tree-walker
+    public static Object tailCall(Object interpreter, Object callee, Object receiver, Object[] arguments,
+                                  Object call) {
+        Expr.Call expr = (Expr.Call) call;
+        JEZCallable function = expr.cache.check(callee, arguments.length, expr.paren);
+        return ((Interpreter) interpreter).tailCall(function, (JEZInstance) receiver, Arrays.asList(arguments));
+    }
+}
@@ -0,0 +1,57 @@
+package com.craftinginterpreters.jez;
+//instruction set for the bytecode backend
+//operands follow the opcode, indices, slots and offsets are four bytes high byte first
+final class OpCode {
+    static final byte CONSTANT = 0;        //constant index
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;       //slot
+    static final byte SET_LOCAL = 6;       //slot
+    static final byte GET_GLOBAL = 7;      //name token
+    static final byte DEFINE_GLOBAL = 8;   //name
+    static final byte SET_GLOBAL = 9;      //name token
+    static final byte GET_UPVALUE = 10;    //upvalue index
+    static final byte SET_UPVALUE = 11;    //upvalue index
+    static final byte GET_PROPERTY = 12;   //name token
+    static final byte SET_PROPERTY = 13;   //name token
+    static final byte CHECK_FIELDS = 14;   //name token, errors before the value is evaluated
+    static final byte GET_SUPER = 15;      //method token
+    static final byte EQUAL = 16;
+    static final byte NOT_EQUAL = 17;
+    static final byte GREATER = 18;
+    static final byte GREATER_EQUAL = 19;
+    static final byte LESS = 20;
+    static final byte LESS_EQUAL = 21;
+    static final byte ADD = 22;
+    static final byte SUBTRACT = 23;
+    static final byte MULTIPLY = 24;
+    static final byte DIVIDE = 25;
+    static final byte NOT = 26;
+    static final byte NEGATE = 27;
+    static final byte PRINT = 28;
+    static final byte JUMP = 29;           //forward offset
+    static final byte JUMP_IF_FALSE = 30;  //forward offset, leaves the condition on the stack
+    static final byte LOOP = 31;           //backward offset
+    static final byte CALL = 32;           //argument count byte
+    static final byte CLOSURE = 33;        //function constant, then a local flag byte and index per upvalue
+    static final byte CLOSE_UPVALUE = 34;
+    static final byte RETURN = 35;
+    static final byte CLASS = 36;          //name token, superclass flag byte
+    static final byte METHOD = 37;         //name
+    static final byte INVOKE = 38;         //name token, argument count byte, calls a method without binding it
+    //superinstructions Peephole writes over the first opcode of a sequence, the sequence's operands stay in place after it
+    static final byte GET_LOCAL_CONSTANT = 39;  //GET_LOCAL, CONSTANT
+    static final byte ADD_LOCAL_CONSTANT = 40;  //GET_LOCAL, CONSTANT, ADD
+    static final byte SET_LOCAL_POP = 41;       //SET_LOCAL, POP
+    static final byte GET_LOCAL_PROPERTY = 42;  //GET_LOCAL, GET_PROPERTY
+    //a comparison, JUMP_IF_FALSE and POP, where the jump lands on another POP that is skipped as well
+    static final byte LESS_JUMP = 43;
+    static final byte LESS_EQUAL_JUMP = 44;
+    static final byte GREATER_JUMP = 45;
+    static final byte GREATER_EQUAL_JUMP = 46;
+
+    private OpCode() {
+    }
+}
@@ -0,0 +1,319 @@
+package com.craftinginterpreters.jez;
+import java.util.ArrayList;
+import java.util.List;
+
+//rewrites the resolved tree before it runs, folding constants, inlining locals that never change and dropping dead code
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    //report every rewrite on stderr
+    private final boolean verbose;
+    //mirror the current function's stack frame and upvalues, holding the declaration of each local known to be constant
+    private Stmt.Var[] stack;
+    private Stmt.Var[] upvalues = new Stmt.Var[0];
+    //line of the nearest token, for the report
+    private int line = 1;
+
+    Optimizer(boolean verbose, int stackSize) {
+        this.verbose = verbose;
+        this.stack = new Stmt.Var[stackSize];
+    }
+    //removed statements are left out, the same list comes back when nothing changed
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>();
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt optimized = statement.accept(this);
+            if (optimized != null) result.add(optimized);
+            if (optimized != statement) changed = true;
+        }
+        return changed ? result : statements;
+    }
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+    //if and while bodies can not be removed, an empty block stands in
+    private Stmt optimizeBranch(Stmt stmt) {
+        Stmt optimized = stmt.accept(this);
+        if (optimized == null) return new Stmt.Block(new ArrayList<>());
+        return optimized;
+    }
+    private void report(String message) {
+        if (verbose) System.err.println("[line " + line + "] " + message);
+    }
+    //every declaration overwrites its slot, so a stack slot reused by a later scope forgets the old constant
+    private void declare(int slot, Stmt.Var constant) {
+        if (slot >= 0) stack[slot] = constant;
+    }
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimize(stmt.statements);
+        if (statements.isEmpty()) {
+            report("Removed empty block.");
+            return null;
+        }
+        if (statements == stmt.statements) return stmt;
+        return new Stmt.Block(statements);
+    }
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        declare(stmt.slot, null);
+        if (stmt.superclass != null) declare(stmt.superSlot, null);
+        List<Stmt.Function> methods = new ArrayList<>();
+        boolean changed = false;
+        for (Stmt.Function method : stmt.methods) {
+            Stmt.Function optimized = (Stmt.Function)visitFunctionStmt(method);
+            methods.add(optimized);
+            if (optimized != method) changed = true;
+        }
+        if (!changed) return stmt;
+        Stmt.Class klass = new Stmt.Class(stmt.name, stmt.superclass, methods);
+        klass.slot = stmt.slot;
+        klass.boxed = stmt.boxed;
+        klass.superSlot = stmt.superSlot;
+        return klass;
+    }
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression instanceof Expr.Literal) {
+            report("Removed unused constant.");
+            return null;
+        }
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        declare(stmt.slot, null);
+        //a constant captured by the function is still constant inside it
+        Stmt.Var[] captured = new Stmt.Var[stmt.upvalues.length];
+        for (int i = 0; i < captured.length; i++) {
+            captured[i] = stmt.upvalueIsLocal[i] ? stack[stmt.upvalues[i]] : upvalues[stmt.upvalues[i]];
+        }
+        Stmt.Var[] enclosingStack = stack;
+        Stmt.Var[] enclosingUpvalues = upvalues;
+        stack = new Stmt.Var[stmt.stackSize];
+        upvalues = captured;
+        List<Stmt> body = optimize(stmt.body);
+        stack = enclosingStack;
+        upvalues = enclosingUpvalues;
+        if (body == stmt.body) return stmt;
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.parameters, body);
+        function.slot = stmt.slot;
+        function.boxed = stmt.boxed;
+        function.stackSize = stmt.stackSize;
+        function.boxedParameters = stmt.boxedParameters;
+        function.upvalues = stmt.upvalues;
+        function.upvalueIsLocal = stmt.upvalueIsLocal;
+        return function;
+    }
+    //a constant condition keeps only the branch that runs
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal) {
+            report("Removed dead branch.");
+            if (Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+                return stmt.thenBranch.accept(this);
+            }
+            if (stmt.elseBranch == null) return null;
+            return stmt.elseBranch.accept(this);
+        }
+        Stmt thenBranch = optimizeBranch(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+                elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+        Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+        result.tail = stmt.tail && value instanceof Expr.Call;
+        return result;
+    }
+    //a local that is never assigned again keeps the constant it starts with
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        Stmt.Var var = stmt;
+        if (stmt.initializer != null) {
+            Expr initializer = optimize(stmt.initializer);
+            if (initializer != stmt.initializer) {
+                var = new Stmt.Var(stmt.name, initializer);
+                var.slot = stmt.slot;
+                var.boxed = stmt.boxed;
+                var.reassigned = stmt.reassigned;
+            }
+        }
+        boolean constant = !var.reassigned &&
+                (var.initializer == null || var.initializer instanceof Expr.Literal);
+        declare(var.slot, constant ? var : null);
+        return var;
+    }
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+            report("Removed loop that never runs.");
+            return null;
+        }
+        Stmt body = optimizeBranch(stmt.body);
+        Expr increment = stmt.increment == null ? null : optimize(stmt.increment);
+        if (condition == stmt.condition && body == stmt.body && increment == stmt.increment) return stmt;
+        return new Stmt.While(condition, body, increment);
+    }
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        line = expr.name.line;
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.slot = expr.slot;
+        assign.upvalue = expr.upvalue;
+        assign.boxed = expr.boxed;
+        return assign;
+    }
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        line = expr.operator.line;
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Expr folded = fold(expr.operator, ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+            if (folded != null) {
+                report("Folded constant expression.");
+                return folded;
+            }
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+    //result of a binary operator on two constants, null when it would fail at runtime
+    private Expr fold(Token operator, Object left, Object right) {
+        switch (operator.type) {
+            case BANG_EQUAL: return new Expr.Literal(!Interpreter.isEqual(left, right));
+            case EQUAL_EQUAL: return new Expr.Literal(Interpreter.isEqual(left, right));
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return new Expr.Literal((String)left + (String)right);
+                }
+                break;
+        }
+        if (!(left instanceof Double && right instanceof Double)) return null;
+        double a = (double)left;
+        double b = (double)right;
+        switch (operator.type) {
+            case GREATER: return new Expr.Literal(a > b);
+            case GREATER_EQUAL: return new Expr.Literal(a >= b);
+            case LESS: return new Expr.Literal(a < b);
+            case LESS_EQUAL: return new Expr.Literal(a <= b);
+            case MINUS: return new Expr.Literal(a - b);
+            case PLUS: return new Expr.Literal(a + b);
+            case SLASH: return new Expr.Literal(a / b);
+            case STAR: return new Expr.Literal(a * b);
+        }
+        return null;
+    }
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        line = expr.paren.line;
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>();
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            arguments.add(optimized);
+            if (optimized != argument) changed = true;
+        }
+        if (!changed) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        line = expr.name.line;
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+    //parentheses only matter to the parser
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+    //a constant left side decides whether the right side runs
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        line = expr.operator.line;
+        Expr left = optimize(expr.left);
+        if (left instanceof Expr.Literal) {
+            report("Folded constant expression.");
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal)left).value);
+            if (expr.operator.type == TokenType.OR ? truthy : !truthy) return left;
+            return optimize(expr.right);
+        }
+        Expr right = optimize(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        line = expr.name.line;
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        line = expr.operator.line;
+        Expr right = optimize(expr.right);
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)right).value;
+            if (expr.operator.type == TokenType.BANG) {
+                report("Folded constant expression.");
+                return new Expr.Literal(!Interpreter.isTruthy(value));
+            }
+            if (expr.operator.type == TokenType.MINUS && value instanceof Double) {
+                report("Folded constant expression.");
+                return new Expr.Literal(-(double)value);
+            }
+        }
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        if (expr.slot < 0) return expr;
+        Stmt.Var var = expr.upvalue ? upvalues[expr.slot] : stack[expr.slot];
+        if (var == null) return expr;
+        report("Inlined constant '" + expr.name.lexeme + "'.");
+        if (var.initializer == null) return new Expr.Literal(null);
+        return new Expr.Literal(((Expr.Literal)var.initializer).value);
+    }
+}
@@ -0,0 +1,118 @@
+package com.craftinginterpreters.jez;
+//fuses common instruction sequences in a finished chunk into superinstructions, one dispatch instead of several
+//only the first opcode is overwritten, the rest of the sequence stays where it was, so no jump offset changes
+//a sequence that something jumps into the middle of is left alone
+//the sequences are the most frequent instruction pairs on the benchmark scripts
+final class Peephole {
+    private Peephole() {
+    }
+
+    static void optimize(Chunk chunk) {
+        byte[] code = chunk.code;
+        boolean[] targets = jumpTargets(chunk);
+        int ip = 0;
+        while (ip < chunk.count) {
+            int next = ip + length(chunk, ip);
+            switch (code[ip]) {
+                case OpCode.GET_LOCAL:
+                    if (next < chunk.count && !targets[next] && code[next] == OpCode.CONSTANT) {
+                        if (next + 5 < chunk.count && !targets[next + 5] && code[next + 5] == OpCode.ADD) {
+                            code[ip] = OpCode.ADD_LOCAL_CONSTANT;
+                            next += 6;
+                        } else {
+                            code[ip] = OpCode.GET_LOCAL_CONSTANT;
+                            next += 5;
+                        }
+                    } else if (next < chunk.count && !targets[next] && code[next] == OpCode.GET_PROPERTY) {
+                        code[ip] = OpCode.GET_LOCAL_PROPERTY;
+                        next += 5;
+                    }
+                    break;
+                case OpCode.SET_LOCAL:
+                    if (next < chunk.count && !targets[next] && code[next] == OpCode.POP) {
+                        code[ip] = OpCode.SET_LOCAL_POP;
+                        next += 1;
+                    }
+                    break;
+                case OpCode.LESS:
+                case OpCode.LESS_EQUAL:
+                case OpCode.GREATER:
+                case OpCode.GREATER_EQUAL:
+                    if (isBranch(chunk, targets, next)) {
+                        code[ip] = compareJump(code[ip]);
+                        next += 6;
+                    }
+                    break;
+            }
+            ip = next;
+        }
+    }
+    //JUMP_IF_FALSE and the POP after it, jumping to a POP, so neither path needs the condition kept
+    private static boolean isBranch(Chunk chunk, boolean[] targets, int ip) {
+        byte[] code = chunk.code;
+        if (ip + 5 >= chunk.count || code[ip] != OpCode.JUMP_IF_FALSE || code[ip + 5] != OpCode.POP) return false;
+        if (targets[ip] || targets[ip + 5]) return false;
+        int target = ip + 5 + readInt(code, ip + 1);
+        return target < chunk.count && code[target] == OpCode.POP;
+    }
+    private static byte compareJump(byte op) {
+        switch (op) {
+            case OpCode.LESS: return OpCode.LESS_JUMP;
+            case OpCode.LESS_EQUAL: return OpCode.LESS_EQUAL_JUMP;
+            case OpCode.GREATER: return OpCode.GREATER_JUMP;
+        }
+        return OpCode.GREATER_EQUAL_JUMP;
+    }
+    private static boolean[] jumpTargets(Chunk chunk) {
+        byte[] code = chunk.code;
+        boolean[] targets = new boolean[chunk.count + 1];
+        for (int ip = 0; ip < chunk.count; ip += length(chunk, ip)) {
+            switch (code[ip]) {
+                case OpCode.JUMP:
+                case OpCode.JUMP_IF_FALSE:
+                    targets[ip + 5 + readInt(code, ip + 1)] = true;
+                    break;
+                case OpCode.LOOP:
+                    targets[ip + 5 - readInt(code, ip + 1)] = true;
+                    break;
+            }
+        }
+        return targets;
+    }
+    //bytes taken by the instruction at ip, operands included
+    private static int length(Chunk chunk, int ip) {
+        switch (chunk.code[ip]) {
+            case OpCode.CALL:
+                return 2;
+            case OpCode.CLASS:
+            case OpCode.INVOKE:
+                return 6;
+            case OpCode.CLOSURE: {
+                VMFunction function = (VMFunction) chunk.constants[readInt(chunk.code, ip + 1)];
+                return 5 + 5 * function.upvalueCount;
+            }
+            case OpCode.CONSTANT:
+            case OpCode.GET_LOCAL:
+            case OpCode.SET_LOCAL:
+            case OpCode.GET_GLOBAL:
+            case OpCode.DEFINE_GLOBAL:
+            case OpCode.SET_GLOBAL:
+            case OpCode.GET_UPVALUE:
+            case OpCode.SET_UPVALUE:
+            case OpCode.GET_PROPERTY:
+            case OpCode.SET_PROPERTY:
+            case OpCode.CHECK_FIELDS:
+            case OpCode.GET_SUPER:
+            case OpCode.JUMP:
+            case OpCode.JUMP_IF_FALSE:
+            case OpCode.LOOP:
+            case OpCode.METHOD:
+                return 5;
+        }
+        return 1;
+    }
+    private static int readInt(byte[] code, int offset) {
+        return (code[offset] << 24) | ((code[offset + 1] & 0xff) << 16)
+                | ((code[offset + 2] & 0xff) << 8) | (code[offset + 3] & 0xff);
+    }
+}
@@ -0,0 +1,77 @@
+package com.craftinginterpreters.jez;
+//inline cache for one property get or set, remembers what it found for the last few shapes
+class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final Shape[] shapes = new Shape[MAX_ENTRIES];
+    //field index for the shape, -1 when a get found a method instead
+    private final int[] indices = new int[MAX_ENTRIES];
+    private final JEZFunction[] methods = new JEZFunction[MAX_ENTRIES];
+    //layout after the store, for sets that add a new field
+    private final Shape[] transitions = new Shape[MAX_ENTRIES];
+    private int count = 0;
+    //seen more shapes than fit, every access takes the slow path
+    private boolean megamorphic = false;
+
+    Object get(JEZInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (indices[i] >= 0) return instance.values[indices[i]];
+                return methods[i].bind(instance);
+            }
+        }
+        Object value = instance.get(name);
+        cacheLookup(instance.klass, shape, name);
+        return value;
+    }
+    //method a call through this site runs without binding it, null when a field has the name
+    JEZFunction method(JEZInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) return methods[i];
+        }
+        JEZFunction method = instance.method(name);
+        cacheLookup(instance.klass, shape, name);
+        return method;
+    }
+    //shapes belong to one template, so a method found for a shape stays valid
+    private void cacheLookup(JEZClass klass, Shape shape, Token name) {
+        if (shape == null || megamorphic) return;
+        int index = shape.indexOf(name.lexeme);
+        JEZFunction method = index < 0 ? klass.findMethod(name.lexeme) : null;
+        add(shape, index, method, null);
+    }
+    void set(JEZInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            if (shapes[i] == shape) {
+                if (transitions[i] != null) {
+                    instance.addField(transitions[i], value);
+                } else {
+                    instance.values[indices[i]] = value;
+                }
+                return;
+            }
+        }
+        instance.set(name, value);
+        if (shape != null && instance.shape != null && !megamorphic) {
+            if (instance.shape == shape) {
+                add(shape, shape.indexOf(name.lexeme), null, null);
+            } else {
+                add(shape, -1, null, instance.shape);
+            }
+        }
+    }
+    private void add(Shape shape, int index, JEZFunction method, Shape transition) {
+        if (count == MAX_ENTRIES) {
+            megamorphic = true;
+            return;
+        }
+        shapes[count] = shape;
+        indices[count] = index;
+        methods[count] = method;
+        transitions[count] = transition;
+        count++;
+    }
+}
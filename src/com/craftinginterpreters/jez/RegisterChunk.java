@@ -0,0 +1,39 @@
+package com.craftinginterpreters.jez;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//register VM code for one function, with a line per word and its constant pool
+class RegisterChunk {
+    int[] code = new int[16];
+    int[] lines = new int[16];
+    int count = 0;
+    Object[] constants;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(int word, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = word;
+        lines[count] = line;
+        count++;
+    }
+    //nil, true and false are constants here too
+    int addConstant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index != null) return index;
+        constantList.add(value);
+        constantIndex.put(value, constantList.size() - 1);
+        return constantList.size() - 1;
+    }
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+    }
+}
@@ -0,0 +1,580 @@
+package com.craftinginterpreters.jez;
+import java.util.ArrayList;
+import java.util.List;
+
+//compiles resolved statements to three-address code for the register VM
+//locals keep one register for their whole scope and temporaries are stacked above them,
+//so a local used as an operand is read where it lives rather than pushed first
+class RegisterCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+    //a local's register is its index in the locals list
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+    //where a closure finds a captured variable when it is created
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+    //bookkeeping for the function currently being compiled
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final VMFunction function;
+        final RegisterChunk chunk = new RegisterChunk();
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        //first register not holding a local or a live temporary
+        int freeRegister = 1;
+
+        FunctionState(FunctionState enclosing, VMFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            function.registerChunk = chunk;
+            //register zero holds the callee, or the receiver for methods
+            if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+                locals.add(new Local("this", 0));
+            } else {
+                locals.add(new Local("", 0));
+            }
+        }
+    }
+
+    private FunctionState current = null;
+    //line given to emitted code, taken from the nearest token
+    private int line = 1;
+    //register the expression being visited leaves its value in
+    private int target = 0;
+
+    //compile a whole program into the body of an implicit script function
+    VMFunction compileScript(List<Stmt> statements) {
+        current = new FunctionState(null, new VMFunction(null, 0), FunctionType.SCRIPT);
+        compile(statements);
+        emitReturn();
+        return endFunction();
+    }
+    private void compile(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+    }
+    //temporaries never outlive a statement
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+        current.freeRegister = current.locals.size();
+    }
+    //evaluates expr into register
+    private void compile(Expr expr, int register) {
+        int enclosingTarget = target;
+        int mark = current.freeRegister;
+        target = register;
+        expr.accept(this);
+        target = enclosingTarget;
+        current.freeRegister = mark;
+    }
+    //an operand for expr, a constant or the local's own register when it has one, otherwise a new temporary
+    private int operand(Expr expr) {
+        while (expr instanceof Expr.Grouping) expr = ((Expr.Grouping)expr).expression;
+        if (expr instanceof Expr.Literal) return constant(((Expr.Literal)expr).value);
+        if (expr instanceof Expr.Variable) return load(((Expr.Variable)expr).name);
+        if (expr instanceof Expr.This) return load(((Expr.This)expr).keyword);
+        int register = reserve();
+        compile(expr, register);
+        return register;
+    }
+    //an operand read after later has run, a local later might assign is copied out first
+    private int operand(Expr expr, Expr later) {
+        Expr inner = expr;
+        while (inner instanceof Expr.Grouping) inner = ((Expr.Grouping)inner).expression;
+        if (inner instanceof Expr.Variable && resolveLocal(current, ((Expr.Variable)inner).name.lexeme) != -1
+                && mayAssign(later, ((Expr.Variable)inner).name.lexeme)) {
+            int register = reserve();
+            compile(expr, register);
+            return register;
+        }
+        return operand(expr);
+    }
+    //calls may run a closure that assigns a captured local, so any call counts
+    private static boolean mayAssign(Expr expr, String name) {
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign)expr;
+            return assign.name.lexeme.equals(name) || mayAssign(assign.value, name);
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            return mayAssign(binary.left, name) || mayAssign(binary.right, name);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            return mayAssign(logical.left, name) || mayAssign(logical.right, name);
+        }
+        if (expr instanceof Expr.Set) {
+            Expr.Set set = (Expr.Set)expr;
+            return mayAssign(set.object, name) || mayAssign(set.value, name);
+        }
+        if (expr instanceof Expr.Grouping) return mayAssign(((Expr.Grouping)expr).expression, name);
+        if (expr instanceof Expr.Unary) return mayAssign(((Expr.Unary)expr).right, name);
+        if (expr instanceof Expr.Get) return mayAssign(((Expr.Get)expr).object, name);
+        return expr instanceof Expr.Call;
+    }
+    //an expression statement only needs the effect, assignments skip the copy into a result register
+    private void effect(Expr expr) {
+        if (expr instanceof Expr.Assign) {
+            assign((Expr.Assign)expr);
+        } else if (expr instanceof Expr.Set) {
+            set((Expr.Set)expr);
+        } else if (expr instanceof Expr.Call) {
+            compile(expr, reserve());
+        } else {
+            operand(expr);
+        }
+    }
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        compile(stmt.statements);
+        endScope();
+        return null;
+    }
+    //the name is defined as nil first, then the finished template is assigned to it
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        if (current.scopeDepth > 0) {
+            emit(RegisterOp.MOVE, reserve(), constant(null));
+            addLocal(stmt.name.lexeme);
+        } else {
+            emit(RegisterOp.DEFINE_GLOBAL, constant(null), makeConstant(stmt.name.lexeme));
+        }
+        int superclass = -1;
+        if (stmt.superclass != null) {
+            //methods find the superclass through a hidden local
+            beginScope();
+            superclass = reserve();
+            compile(stmt.superclass, superclass);
+            addLocal("super");
+        }
+        int klass = reserve();
+        line = stmt.name.line;
+        emit(RegisterOp.CLASS, klass, makeConstant(stmt.name.lexeme), superclass);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = FunctionType.METHOD;
+            if (method.name.lexeme.equals("initialize")) {
+                type = FunctionType.INITIALIZER;
+            }
+            int closure = reserve();
+            function(method, type, closure);
+            line = method.name.line;
+            emit(RegisterOp.METHOD, klass, makeConstant(method.name.lexeme), closure);
+            current.freeRegister--;
+        }
+        store(stmt.name, klass);
+        if (stmt.superclass != null) endScope();
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        effect(stmt.expression);
+        return null;
+    }
+    //a local function is in scope before its body so it can call itself
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        int register = reserve();
+        if (current.scopeDepth > 0) {
+            addLocal(stmt.name.lexeme);
+            function(stmt, FunctionType.FUNCTION, register);
+        } else {
+            function(stmt, FunctionType.FUNCTION, register);
+            emit(RegisterOp.DEFINE_GLOBAL, register, makeConstant(stmt.name.lexeme));
+        }
+        return null;
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int thenJump = jumpIfFalse(stmt.condition);
+        compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+        emit(RegisterOp.JUMP, -1);
+        int elseJump = current.chunk.count - 1;
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        emit(RegisterOp.PRINT, operand(stmt.expression));
+        return null;
+    }
+    //an explicit return from an initializer gives nil, constructing still yields the instance
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        int value = stmt.value == null ? constant(null) : operand(stmt.value);
+        line = stmt.keyword.line;
+        emit(RegisterOp.RETURN, value);
+        return null;
+    }
+    //a local's initializer is compiled straight into the register it will live in
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (current.scopeDepth > 0) {
+            int register = reserve();
+            if (stmt.initializer != null) {
+                compile(stmt.initializer, register);
+            } else {
+                emit(RegisterOp.MOVE, register, constant(null));
+            }
+            addLocal(stmt.name.lexeme);
+            return null;
+        }
+        int value = stmt.initializer == null ? constant(null) : operand(stmt.initializer);
+        line = stmt.name.line;
+        emit(RegisterOp.DEFINE_GLOBAL, value, makeConstant(stmt.name.lexeme));
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.chunk.count;
+        int exitJump = jumpIfFalse(stmt.condition);
+        compile(stmt.body);
+        if (stmt.increment != null) {
+            effect(stmt.increment);
+            current.freeRegister = current.locals.size();
+        }
+        emit(RegisterOp.JUMP, loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+    //a comparison branches on its operands directly instead of making a boolean first
+    private int jumpIfFalse(Expr condition) {
+        int mark = current.freeRegister;
+        Expr inner = condition;
+        while (inner instanceof Expr.Grouping) inner = ((Expr.Grouping)inner).expression;
+        int op = -1;
+        if (inner instanceof Expr.Binary) {
+            switch (((Expr.Binary)inner).operator.type) {
+                case GREATER: op = RegisterOp.GREATER_JUMP; break;
+                case GREATER_EQUAL: op = RegisterOp.GREATER_EQUAL_JUMP; break;
+                case LESS: op = RegisterOp.LESS_JUMP; break;
+                case LESS_EQUAL: op = RegisterOp.LESS_EQUAL_JUMP; break;
+            }
+        }
+        if (op != -1) {
+            Expr.Binary binary = (Expr.Binary)inner;
+            int left = operand(binary.left, binary.right);
+            int right = operand(binary.right);
+            line = binary.operator.line;
+            emit(op, left, right, -1);
+        } else {
+            emit(RegisterOp.JUMP_IF_FALSE, operand(condition), -1);
+        }
+        current.freeRegister = mark;
+        return current.chunk.count - 1;
+    }
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        move(target, assign(expr));
+        return null;
+    }
+    //stores the value and returns the operand holding it
+    //a local gets the value computed straight into its register unless the value is an and/or,
+    //which writes its left side before the right side has run
+    private int assign(Expr.Assign expr) {
+        int local = resolveLocal(current, expr.name.lexeme);
+        if (local != -1) {
+            if (expr.value instanceof Expr.Logical) {
+                move(local, operand(expr.value));
+            } else {
+                compile(expr.value, local);
+            }
+            return local;
+        }
+        int value = operand(expr.value);
+        store(expr.name, value);
+        return value;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        int register = target;
+        int left = operand(expr.left, expr.right);
+        int right = operand(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case GREATER: emit(RegisterOp.GREATER, register, left, right); break;
+            case GREATER_EQUAL: emit(RegisterOp.GREATER_EQUAL, register, left, right); break;
+            case LESS: emit(RegisterOp.LESS, register, left, right); break;
+            case LESS_EQUAL: emit(RegisterOp.LESS_EQUAL, register, left, right); break;
+            case MINUS: emit(RegisterOp.SUBTRACT, register, left, right); break;
+            case PLUS: emit(RegisterOp.ADD, register, left, right); break;
+            case SLASH: emit(RegisterOp.DIVIDE, register, left, right); break;
+            case STAR: emit(RegisterOp.MULTIPLY, register, left, right); break;
+            case BANG_EQUAL: emit(RegisterOp.NOT_EQUAL, register, left, right); break;
+            case EQUAL_EQUAL: emit(RegisterOp.EQUAL, register, left, right); break;
+        }
+        return null;
+    }
+    //the callee and arguments go in consecutive registers, the target itself when it is the newest temporary
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int register = target;
+        int base = register == current.freeRegister - 1 && register >= current.locals.size() ? register : reserve();
+        if (expr.callee instanceof Expr.Get && Compiler.canInvoke(expr.arguments)) {
+            Expr.Get callee = (Expr.Get)expr.callee;
+            compile(callee.object, base);
+            arguments(expr.arguments);
+            line = expr.paren.line;
+            emit(RegisterOp.INVOKE, base, expr.arguments.size(), makeConstant(callee.name));
+        } else {
+            compile(expr.callee, base);
+            arguments(expr.arguments);
+            line = expr.paren.line;
+            emit(RegisterOp.CALL, base, expr.arguments.size());
+        }
+        move(register, base);
+        return null;
+    }
+    private void arguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument, reserve());
+        }
+    }
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        int register = target;
+        int object = operand(expr.object);
+        line = expr.name.line;
+        emit(RegisterOp.GET_PROPERTY, register, object, makeConstant(expr.name));
+        return null;
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        emit(RegisterOp.MOVE, target, constant(expr.value));
+        return null;
+    }
+    //the left value is left in the target and the right side skipped when it decides the result
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        int register = target;
+        compile(expr.left, register);
+        emit(expr.operator.type == TokenType.OR ? RegisterOp.JUMP_IF_TRUE : RegisterOp.JUMP_IF_FALSE, register, -1);
+        int endJump = current.chunk.count - 1;
+        compile(expr.right, register);
+        patchJump(endJump);
+        return null;
+    }
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        move(target, set(expr));
+        return null;
+    }
+    //the interpreter rejects a non-instance before it evaluates the value,
+    //that only needs its own check when evaluating the value could be seen
+    private int set(Expr.Set expr) {
+        int object = operand(expr.object, expr.value);
+        if (!(expr.object instanceof Expr.This) && !Compiler.isPure(expr.value)) {
+            line = expr.name.line;
+            emit(RegisterOp.CHECK_FIELDS, object, makeConstant(expr.name));
+        }
+        int value = operand(expr.value);
+        line = expr.name.line;
+        emit(RegisterOp.SET_PROPERTY, object, value, makeConstant(expr.name));
+        return value;
+    }
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        int register = target;
+        line = expr.keyword.line;
+        int self = load(new Token(TokenType.THIS, "this", null, expr.keyword.line));
+        int superclass = load(expr.keyword);
+        line = expr.method.line;
+        emit(RegisterOp.GET_SUPER, register, self, superclass, makeConstant(expr.method));
+        return null;
+    }
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        load(expr.keyword, target);
+        return null;
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        int register = target;
+        int right = operand(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG: emit(RegisterOp.NOT, register, right); break;
+            case MINUS: emit(RegisterOp.NEGATE, register, right); break;
+        }
+        return null;
+    }
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        load(expr.name, target);
+        return null;
+    }
+    //compile a function body in its own state, then emit the closure that creates it into register
+    private void function(Stmt.Function stmt, FunctionType type, int register) {
+        FunctionState enclosing = current;
+        current = new FunctionState(enclosing,
+                new VMFunction(stmt.name.lexeme, stmt.parameters.size()), type);
+        beginScope();
+        for (Token param : stmt.parameters) {
+            reserve();
+            addLocal(param.lexeme);
+        }
+        compile(stmt.body);
+        emitReturn();
+        List<Upvalue> upvalues = current.upvalues;
+        VMFunction function = endFunction();
+        line = stmt.name.line;
+        emit(RegisterOp.CLOSURE, register, makeConstant(function));
+        for (Upvalue upvalue : upvalues) {
+            emit(upvalue.isLocal ? 1 : 0, upvalue.index);
+        }
+    }
+    private VMFunction endFunction() {
+        VMFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        current.chunk.finish();
+        current = current.enclosing;
+        return function;
+    }
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+    //drop the scope's locals, moving captured ones off the register file
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        int first = locals.size();
+        boolean captured = false;
+        while (first > 0 && locals.get(first - 1).depth > current.scopeDepth) {
+            first--;
+            captured |= locals.get(first).isCaptured;
+        }
+        if (captured) emit(RegisterOp.CLOSE, first);
+        locals.subList(first, locals.size()).clear();
+        current.freeRegister = first;
+    }
+    //the local takes the register reserved just before
+    private void addLocal(String name) {
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+    //an operand for the variable, its own register for a local
+    private int load(Token name) {
+        int local = resolveLocal(current, name.lexeme);
+        if (local != -1) return local;
+        int register = reserve();
+        load(name, register);
+        return register;
+    }
+    private void load(Token name, int register) {
+        line = name.line;
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            move(register, arg);
+        } else if ((arg = resolveUpvalue(current, name.lexeme)) != -1) {
+            emit(RegisterOp.GET_UPVALUE, register, arg);
+        } else {
+            emit(RegisterOp.GET_GLOBAL, register, makeConstant(name));
+        }
+    }
+    private void store(Token name, int value) {
+        line = name.line;
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            move(arg, value);
+        } else if ((arg = resolveUpvalue(current, name.lexeme)) != -1) {
+            emit(RegisterOp.SET_UPVALUE, value, arg);
+        } else {
+            emit(RegisterOp.SET_GLOBAL, value, makeConstant(name));
+        }
+    }
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+    //look through enclosing functions, capturing the variable at each level on the way back
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, upvalue, false);
+        return -1;
+    }
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(RegisterOp.RETURN, 0);
+        } else {
+            emit(RegisterOp.RETURN, constant(null));
+        }
+    }
+    private int reserve() {
+        int register = current.freeRegister++;
+        if (current.freeRegister > current.function.registerCount) {
+            current.function.registerCount = current.freeRegister;
+        }
+        return register;
+    }
+    private void move(int register, int value) {
+        if (register != value) emit(RegisterOp.MOVE, register, value);
+    }
+    private void emit(int... words) {
+        for (int word : words) {
+            current.chunk.write(word, line);
+        }
+    }
+    //jumps are emitted with -1 as the target, which is filled in once the code after them exists
+    private void patchJump(int offset) {
+        current.chunk.code[offset] = current.chunk.count;
+    }
+    private int constant(Object value) {
+        return -1 - makeConstant(value);
+    }
+    private int makeConstant(Object value) {
+        return current.chunk.addConstant(value);
+    }
+}
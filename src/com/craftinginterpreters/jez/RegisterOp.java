@@ -0,0 +1,48 @@
+package com.craftinginterpreters.jez;
+//instruction set for the register VM, every opcode and operand takes one int
+//A is the register written, B and C are operands that name a register when zero or above
+//and the constant at -1 - operand when negative, jump targets are absolute
+final class RegisterOp {
+    static final int MOVE = 0;           //A, B
+    static final int GET_GLOBAL = 1;     //A, name token
+    static final int DEFINE_GLOBAL = 2;  //B, name
+    static final int SET_GLOBAL = 3;     //B, name token
+    static final int GET_UPVALUE = 4;    //A, upvalue index
+    static final int SET_UPVALUE = 5;    //B, upvalue index
+    static final int GET_PROPERTY = 6;   //A, object B, name token
+    static final int SET_PROPERTY = 7;   //object B, value C, name token
+    static final int CHECK_FIELDS = 8;   //object B, name token, errors before the value is evaluated
+    static final int GET_SUPER = 9;      //A, this B, superclass C, method token
+    static final int EQUAL = 10;         //A, B, C for each of the binary operators
+    static final int NOT_EQUAL = 11;
+    static final int GREATER = 12;
+    static final int GREATER_EQUAL = 13;
+    static final int LESS = 14;
+    static final int LESS_EQUAL = 15;
+    static final int ADD = 16;
+    static final int SUBTRACT = 17;
+    static final int MULTIPLY = 18;
+    static final int DIVIDE = 19;
+    static final int NOT = 20;           //A, B
+    static final int NEGATE = 21;        //A, B
+    static final int PRINT = 22;         //B
+    static final int JUMP = 23;          //target
+    static final int JUMP_IF_FALSE = 24; //B, target
+    static final int JUMP_IF_TRUE = 25;  //B, target
+    //a comparison in a condition, jumps to the target when it is false and keeps nothing
+    static final int LESS_JUMP = 26;          //B, C, target
+    static final int LESS_EQUAL_JUMP = 27;
+    static final int GREATER_JUMP = 28;
+    static final int GREATER_EQUAL_JUMP = 29;
+    //callee in register A and the arguments in the registers after it, the result goes back in A
+    static final int CALL = 30;          //A, argument count
+    static final int INVOKE = 31;        //A, argument count, name token, A holds the receiver
+    static final int CLOSURE = 32;       //A, function constant, then a local flag and index per upvalue
+    static final int CLOSE = 33;         //closes every upvalue at register A and above
+    static final int RETURN = 34;        //B
+    static final int CLASS = 35;         //A, name, superclass register or -1
+    static final int METHOD = 36;        //template register, name, closure register
+
+    private RegisterOp() {
+    }
+}
@@ -0,0 +1,474 @@
+package com.craftinginterpreters.jez;
+import java.util.Arrays;
+import java.util.List;
+
+//register machine that runs the three-address code made by RegisterCompiler
+//instructions name their operands, so a local is read in place rather than pushed and popped
+class RegisterVM {
+    //same caps as VM, a million nested calls fit
+    private static final int MAX_FRAMES = 1 << 20;
+    private static final int MAX_REGISTERS = 1 << 24;
+    final Environment globals = new Environment();
+    private Object[] registers = new Object[256];
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    //open upvalues, sorted with the highest register first
+    private VMUpvalue openUpvalues = null;
+
+    //one active call, its registers start at base with the callee or receiver
+    private static class CallFrame {
+        VMClosure closure;
+        //return address while a call is made from this frame
+        int ip;
+        int base;
+        //constructing yields the new instance whatever the initializer returns
+        boolean isConstructor;
+    }
+
+    RegisterVM() {
+        Interpreter.defineNatives(globals);
+    }
+
+    //public API
+    void interpret(List<Stmt> statements) {
+        try {
+            VMFunction script = new RegisterCompiler().compileScript(statements);
+            VMClosure closure = new VMClosure(script);
+            ensureRegisters(script.registerCount);
+            registers[0] = closure;
+            pushFrame(closure, 0, false);
+            run();
+        } catch (RuntimeError error) {
+            JEZ.runtimeError(error);
+        } finally {
+            frameCount = 0;
+            openUpvalues = null;
+            Arrays.fill(registers, null);
+        }
+    }
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        int[] code = frame.closure.function.registerChunk.code;
+        Object[] constants = frame.closure.function.registerChunk.constants;
+        Object[] registers = this.registers;
+        int ip = frame.ip;
+        int base = frame.base;
+        for (;;) {
+            switch (code[ip]) {
+                case RegisterOp.MOVE:
+                    registers[base + code[ip + 1]] = operand(registers, base, constants, code[ip + 2]);
+                    ip += 3;
+                    break;
+                case RegisterOp.GET_GLOBAL:
+                    registers[base + code[ip + 1]] = globals.get((Token) constants[code[ip + 2]]);
+                    ip += 3;
+                    break;
+                case RegisterOp.DEFINE_GLOBAL:
+                    globals.define((String) constants[code[ip + 2]], operand(registers, base, constants, code[ip + 1]));
+                    ip += 3;
+                    break;
+                case RegisterOp.SET_GLOBAL:
+                    globals.assign((Token) constants[code[ip + 2]], operand(registers, base, constants, code[ip + 1]));
+                    ip += 3;
+                    break;
+                case RegisterOp.GET_UPVALUE: {
+                    VMUpvalue upvalue = frame.closure.upvalues[code[ip + 2]];
+                    registers[base + code[ip + 1]] = upvalue.slot >= 0 ? registers[upvalue.slot] : upvalue.closed;
+                    ip += 3;
+                    break;
+                }
+                case RegisterOp.SET_UPVALUE: {
+                    VMUpvalue upvalue = frame.closure.upvalues[code[ip + 2]];
+                    Object value = operand(registers, base, constants, code[ip + 1]);
+                    if (upvalue.slot >= 0) {
+                        registers[upvalue.slot] = value;
+                    } else {
+                        upvalue.closed = value;
+                    }
+                    ip += 3;
+                    break;
+                }
+                case RegisterOp.GET_PROPERTY:
+                    registers[base + code[ip + 1]] = VM.getProperty(operand(registers, base, constants, code[ip + 2]),
+                            (Token) constants[code[ip + 3]]);
+                    ip += 4;
+                    break;
+                case RegisterOp.SET_PROPERTY: {
+                    Token name = (Token) constants[code[ip + 3]];
+                    Object object = operand(registers, base, constants, code[ip + 1]);
+                    if (!(object instanceof VMInstance)) {
+                        throw new RuntimeError(name, "Only objects have fields.");
+                    }
+                    ((VMInstance) object).fields.put(name.lexeme, operand(registers, base, constants, code[ip + 2]));
+                    ip += 4;
+                    break;
+                }
+                case RegisterOp.CHECK_FIELDS:
+                    if (!(operand(registers, base, constants, code[ip + 1]) instanceof VMInstance)) {
+                        throw new RuntimeError((Token) constants[code[ip + 2]], "Only objects have fields.");
+                    }
+                    ip += 3;
+                    break;
+                case RegisterOp.GET_SUPER: {
+                    Token name = (Token) constants[code[ip + 4]];
+                    VMClass superclass = (VMClass) operand(registers, base, constants, code[ip + 3]);
+                    VMClosure method = superclass.methods.get(name.lexeme);
+                    if (method == null) {
+                        throw new RuntimeError(name, "Did not create property '" + name.lexeme + "'.");
+                    }
+                    registers[base + code[ip + 1]] = new VMBoundMethod(operand(registers, base, constants, code[ip + 2]), method);
+                    ip += 5;
+                    break;
+                }
+                case RegisterOp.EQUAL:
+                    registers[base + code[ip + 1]] = Interpreter.isEqual(operand(registers, base, constants, code[ip + 2]),
+                            operand(registers, base, constants, code[ip + 3]));
+                    ip += 4;
+                    break;
+                case RegisterOp.NOT_EQUAL:
+                    registers[base + code[ip + 1]] = !Interpreter.isEqual(operand(registers, base, constants, code[ip + 2]),
+                            operand(registers, base, constants, code[ip + 3]));
+                    ip += 4;
+                    break;
+                case RegisterOp.GREATER: {
+                    Object a = operand(registers, base, constants, code[ip + 2]);
+                    Object b = operand(registers, base, constants, code[ip + 3]);
+                    checkNumbers(a, b, frame, ip);
+                    registers[base + code[ip + 1]] = (double) a > (double) b;
+                    ip += 4;
+                    break;
+                }
+                case RegisterOp.GREATER_EQUAL: {
+                    Object a = operand(registers, base, constants, code[ip + 2]);
+                    Object b = operand(registers, base, constants, code[ip + 3]);
+                    checkNumbers(a, b, frame, ip);
+                    registers[base + code[ip + 1]] = (double) a >= (double) b;
+                    ip += 4;
+                    break;
+                }
+                case RegisterOp.LESS: {
+                    Object a = operand(registers, base, constants, code[ip + 2]);
+                    Object b = operand(registers, base, constants, code[ip + 3]);
+                    checkNumbers(a, b, frame, ip);
+                    registers[base + code[ip + 1]] = (double) a < (double) b;
+                    ip += 4;
+                    break;
+                }
+                case RegisterOp.LESS_EQUAL: {
+                    Object a = operand(registers, base, constants, code[ip + 2]);
+                    Object b = operand(registers, base, constants, code[ip + 3]);
+                    checkNumbers(a, b, frame, ip);
+                    registers[base + code[ip + 1]] = (double) a <= (double) b;
+                    ip += 4;
+                    break;
+                }
+                //addition or concatenate two strings
+                case RegisterOp.ADD: {
+                    Object a = operand(registers, base, constants, code[ip + 2]);
+                    Object b = operand(registers, base, constants, code[ip + 3]);
+                    if (a instanceof Double && b instanceof Double) {
+                        registers[base + code[ip + 1]] = (double) a + (double) b;
+                    } else if (a instanceof String && b instanceof String) {
+                        registers[base + code[ip + 1]] = (String) a + (String) b;
+                    } else {
+                        throw error(frame, ip, "Addition must be between two numbers or two strings.");
+                    }
+                    ip += 4;
+                    break;
+                }
+                case RegisterOp.SUBTRACT: {
+                    Object a = operand(registers, base, constants, code[ip + 2]);
+                    Object b = operand(registers, base, constants, code[ip + 3]);
+                    checkNumbers(a, b, frame, ip);
+                    registers[base + code[ip + 1]] = (double) a - (double) b;
+                    ip += 4;
+                    break;
+                }
+                case RegisterOp.MULTIPLY: {
+                    Object a = operand(registers, base, constants, code[ip + 2]);
+                    Object b = operand(registers, base, constants, code[ip + 3]);
+                    checkNumbers(a, b, frame, ip);
+                    registers[base + code[ip + 1]] = (double) a * (double) b;
+                    ip += 4;
+                    break;
+                }
+                case RegisterOp.DIVIDE: {
+                    Object a = operand(registers, base, constants, code[ip + 2]);
+                    Object b = operand(registers, base, constants, code[ip + 3]);
+                    checkNumbers(a, b, frame, ip);
+                    registers[base + code[ip + 1]] = (double) a / (double) b;
+                    ip += 4;
+                    break;
+                }
+                case RegisterOp.NOT:
+                    registers[base + code[ip + 1]] = !Interpreter.isTruthy(operand(registers, base, constants, code[ip + 2]));
+                    ip += 3;
+                    break;
+                case RegisterOp.NEGATE: {
+                    Object a = operand(registers, base, constants, code[ip + 2]);
+                    if (!(a instanceof Double)) {
+                        throw error(frame, ip, "Everything in equation must be a number.");
+                    }
+                    registers[base + code[ip + 1]] = -(double) a;
+                    ip += 3;
+                    break;
+                }
+                case RegisterOp.PRINT:
+                    System.out.println(Interpreter.stringify(operand(registers, base, constants, code[ip + 1])));
+                    ip += 2;
+                    break;
+                case RegisterOp.JUMP:
+                    ip = code[ip + 1];
+                    break;
+                case RegisterOp.JUMP_IF_FALSE:
+                    ip = Interpreter.isTruthy(operand(registers, base, constants, code[ip + 1])) ? ip + 3 : code[ip + 2];
+                    break;
+                case RegisterOp.JUMP_IF_TRUE:
+                    ip = Interpreter.isTruthy(operand(registers, base, constants, code[ip + 1])) ? code[ip + 2] : ip + 3;
+                    break;
+                case RegisterOp.LESS_JUMP: {
+                    Object a = operand(registers, base, constants, code[ip + 1]);
+                    Object b = operand(registers, base, constants, code[ip + 2]);
+                    checkNumbers(a, b, frame, ip);
+                    ip = (double) a < (double) b ? ip + 4 : code[ip + 3];
+                    break;
+                }
+                case RegisterOp.LESS_EQUAL_JUMP: {
+                    Object a = operand(registers, base, constants, code[ip + 1]);
+                    Object b = operand(registers, base, constants, code[ip + 2]);
+                    checkNumbers(a, b, frame, ip);
+                    ip = (double) a <= (double) b ? ip + 4 : code[ip + 3];
+                    break;
+                }
+                case RegisterOp.GREATER_JUMP: {
+                    Object a = operand(registers, base, constants, code[ip + 1]);
+                    Object b = operand(registers, base, constants, code[ip + 2]);
+                    checkNumbers(a, b, frame, ip);
+                    ip = (double) a > (double) b ? ip + 4 : code[ip + 3];
+                    break;
+                }
+                case RegisterOp.GREATER_EQUAL_JUMP: {
+                    Object a = operand(registers, base, constants, code[ip + 1]);
+                    Object b = operand(registers, base, constants, code[ip + 2]);
+                    checkNumbers(a, b, frame, ip);
+                    ip = (double) a >= (double) b ? ip + 4 : code[ip + 3];
+                    break;
+                }
+                case RegisterOp.CALL:
+                    frame.ip = ip + 3;
+                    callValue(base + code[ip + 1], code[ip + 2]);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.registerChunk.code;
+                    constants = frame.closure.function.registerChunk.constants;
+                    registers = this.registers;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                case RegisterOp.INVOKE:
+                    frame.ip = ip + 4;
+                    invoke((Token) constants[code[ip + 3]], base + code[ip + 1], code[ip + 2]);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.registerChunk.code;
+                    constants = frame.closure.function.registerChunk.constants;
+                    registers = this.registers;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                case RegisterOp.CLOSURE: {
+                    VMClosure closure = new VMClosure((VMFunction) constants[code[ip + 2]]);
+                    int register = code[ip + 1];
+                    ip += 3;
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        if (code[ip] != 0) {
+                            closure.upvalues[i] = captureUpvalue(base + code[ip + 1]);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[code[ip + 1]];
+                        }
+                        ip += 2;
+                    }
+                    registers[base + register] = closure;
+                    break;
+                }
+                case RegisterOp.CLOSE:
+                    closeUpvalues(base + code[ip + 1]);
+                    ip += 2;
+                    break;
+                case RegisterOp.RETURN: {
+                    Object result = operand(registers, base, constants, code[ip + 1]);
+                    closeUpvalues(base);
+                    if (frame.isConstructor) result = registers[base];
+                    frame.closure = null;
+                    frameCount--;
+                    if (frameCount == 0) return;
+                    registers[base] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.registerChunk.code;
+                    constants = frame.closure.function.registerChunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case RegisterOp.CLASS: {
+                    VMClass superclass = null;
+                    if (code[ip + 3] >= 0) {
+                        Object value = registers[base + code[ip + 3]];
+                        if (!(value instanceof VMClass)) {
+                            throw error(frame, ip, "Super must be a template.");
+                        }
+                        superclass = (VMClass) value;
+                    }
+                    registers[base + code[ip + 1]] = new VMClass((String) constants[code[ip + 2]], superclass);
+                    ip += 4;
+                    break;
+                }
+                case RegisterOp.METHOD:
+                    ((VMClass) registers[base + code[ip + 1]]).addMethod((String) constants[code[ip + 2]],
+                            (VMClosure) registers[base + code[ip + 3]]);
+                    ip += 4;
+                    break;
+                default:
+                    throw error(frame, ip, "Unknown opcode " + code[ip] + ".");
+            }
+        }
+    }
+    //a register at zero or above, a constant below
+    private static Object operand(Object[] registers, int base, Object[] constants, int operand) {
+        return operand >= 0 ? registers[base + operand] : constants[-1 - operand];
+    }
+    //receiver.name(args) with the receiver in the callee register, a field holding a callable is called like any value
+    private void invoke(Token name, int receiverSlot, int argCount) {
+        Object receiver = registers[receiverSlot];
+        if (!(receiver instanceof VMInstance)) {
+            throw new RuntimeError(name, "Only objects have properties.");
+        }
+        VMInstance instance = (VMInstance) receiver;
+        Object field = instance.fields.get(name.lexeme);
+        if (field != null || instance.fields.containsKey(name.lexeme)) {
+            registers[receiverSlot] = field;
+            callValue(receiverSlot, argCount);
+            return;
+        }
+        VMClosure method = instance.klass.methods.get(name.lexeme);
+        if (method == null) {
+            throw new RuntimeError(name, "You did not define '" + name.lexeme + "'.");
+        }
+        call(method, receiverSlot, argCount, false);
+    }
+    //calls the value in the callee register, anything that returns at once leaves its result there
+    private void callValue(int calleeSlot, int argCount) {
+        Object callee = registers[calleeSlot];
+        if (callee instanceof VMClosure) {
+            call((VMClosure) callee, calleeSlot, argCount, false);
+            return;
+        }
+        if (callee instanceof VMBoundMethod) {
+            VMBoundMethod bound = (VMBoundMethod) callee;
+            registers[calleeSlot] = bound.receiver;
+            call(bound.method, calleeSlot, argCount, false);
+            return;
+        }
+        if (callee instanceof VMClass) {
+            VMClass klass = (VMClass) callee;
+            VMClosure initializer = klass.initializer;
+            if (initializer == null && argCount != 0) {
+                throw arityError(0, argCount);
+            }
+            registers[calleeSlot] = new VMInstance(klass);
+            if (initializer != null) call(initializer, calleeSlot, argCount, true);
+            return;
+        }
+        if (callee instanceof JEZCallable) {
+            JEZCallable function = (JEZCallable) callee;
+            if (argCount != function.arity()) {
+                throw arityError(function.arity(), argCount);
+            }
+            //natives never touch the tree-walking interpreter
+            registers[calleeSlot] = callNative(function, calleeSlot + 1, argCount);
+            return;
+        }
+        CallFrame frame = frames[frameCount - 1];
+        throw error(frame, frame.ip - 1, "Can only call functions and templates.");
+    }
+    //arguments sit in the registers from first, up to four go through the fixed-arity entry points
+    private Object callNative(JEZCallable function, int first, int argCount) {
+        switch (argCount) {
+            case 0: return function.call0(null);
+            case 1: return function.call1(null, registers[first]);
+            case 2: return function.call2(null, registers[first], registers[first + 1]);
+            case 3: return function.call3(null, registers[first], registers[first + 1], registers[first + 2]);
+            case 4: return function.call4(null, registers[first], registers[first + 1], registers[first + 2], registers[first + 3]);
+        }
+        return function.call(null, Arrays.asList(Arrays.copyOfRange(registers, first, first + argCount)));
+    }
+    private void call(VMClosure closure, int base, int argCount, boolean isConstructor) {
+        if (argCount != closure.function.arity) {
+            throw arityError(closure.function.arity, argCount);
+        }
+        if (frameCount == MAX_FRAMES || base + closure.function.registerCount > MAX_REGISTERS) {
+            CallFrame frame = frames[frameCount - 1];
+            throw error(frame, frame.ip - 1, "Stack overflow.");
+        }
+        ensureRegisters(base + closure.function.registerCount);
+        pushFrame(closure, base, isConstructor);
+    }
+    private void pushFrame(VMClosure closure, int base, boolean isConstructor) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        frame.isConstructor = isConstructor;
+        frameCount++;
+    }
+    private void ensureRegisters(int size) {
+        if (size > registers.length) {
+            registers = Arrays.copyOf(registers, Math.max(size, Math.min(registers.length * 2, MAX_REGISTERS)));
+        }
+    }
+    //reuse the upvalue for a register if a closure already captured it
+    private VMUpvalue captureUpvalue(int slot) {
+        VMUpvalue previous = null;
+        VMUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+        VMUpvalue created = new VMUpvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+    //move every captured variable at or above last out of the register file
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            VMUpvalue upvalue = openUpvalues;
+            upvalue.closed = registers[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+    private void checkNumbers(Object a, Object b, CallFrame frame, int ip) {
+        if (a instanceof Double && b instanceof Double) return;
+        throw error(frame, ip, "Everything in equation must be a number.");
+    }
+    //the top frame's ip is the return address of the call being made
+    private RuntimeError arityError(int arity, int argCount) {
+        CallFrame frame = frames[frameCount - 1];
+        return error(frame, frame.ip - 1, "There needs to be " + arity +
+                " arguments but you gave " + argCount + ".");
+    }
+    //errors report the line of the instruction at ip
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        return new RuntimeError(frame.closure.function.registerChunk.lines[ip], message);
+    }
+}
@@ -1,15 +1,61 @@
 package com.craftinginterpreters.jez;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    //the function being resolved, the top level counts as one
+    private FunctionState function = new FunctionState(null, 0);
+    //stack slot of a local and whether its initializer has finished
+    private static class Local {
+        final int slot;
+        boolean defined = false;
+        //read or assigned from inside a function nested in the one declaring it
+        boolean captured = false;
+        //written after a closure may have copied it, by an assignment or because it names a function or template
+        boolean assigned = false;
+        //the variable statement that declared it, null for parameters, functions and templates
+        Stmt.Var declaration = null;
+        //tell the declaration and every use whether the local is boxed, run once the scope ends
+        final List<Runnable> uses = new ArrayList<>();
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+        //closures copy a captured value unless it can change afterwards, then it lives in a shared cell
+        boolean boxed() {
+            return captured && assigned;
+        }
+    }
+    private static class Scope {
+        final Map<String, Local> locals = new HashMap<>();
+        //stack slots the scope hands out start here and are free again once it ends
+        final int firstSlot;
+
+        Scope(int firstSlot) {
+            this.firstSlot = firstSlot;
+        }
+    }
+    //stack frame layout and upvalues of a function being resolved
+    private static class FunctionState {
+        final FunctionState enclosing;
+        //index in scopes of the function's outermost scope
+        final int firstScope;
+        //next free stack slot, and the most the frame has needed
+        int nextSlot = 0;
+        int stackSize = 0;
+        //where each upvalue comes from, a stack slot or an upvalue of the enclosing function
+        final List<Integer> upvalues = new ArrayList<>();
+        final List<Boolean> upvalueIsLocal = new ArrayList<>();
+
+        FunctionState(FunctionState enclosing, int firstScope) {
+            this.enclosing = enclosing;
+            this.firstScope = firstScope;
+        }
     }
     private enum FunctionType {
         NONE,
@@ -30,6 +76,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolve(statement);
         }
     }
+    //stack slots the top level needs for locals in its blocks
+    int stackSize() {
+        return function.stackSize;
+    }
     //create scope for block
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
@@ -42,16 +92,20 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.TEMPLATE;
-        declare(stmt.name);
+        Local local = declare(stmt.name);
+        if (local != null) {
+            //methods can capture the name before the template is assigned to it
+            local.assigned = true;
+            stmt.slot = local.slot;
+            local.uses.add(() -> stmt.boxed = local.boxed());
+        }
         define(stmt.name);
         if (stmt.superclass != null) {
             currentClass = ClassType.SUB;
             resolve(stmt.superclass);
             beginScope();
-            scopes.peek().put("super", true);
+            stmt.superSlot = defineImplicit("super").slot;
         }
-        beginScope();
-        scopes.peek().put("this", true);
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("initialize")) {
@@ -59,7 +113,6 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
             resolveFunction(method, declaration);
         }
-        endScope();
         if (stmt.superclass != null) endScope();
         currentClass = enclosingClass;
         return null;
@@ -73,7 +126,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     //create scope for functions
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        Local local = declare(stmt.name);
+        if (local != null) {
+            //the body can capture the name before the function is assigned to it
+            local.assigned = true;
+            stmt.slot = local.slot;
+            local.uses.add(() -> stmt.boxed = local.boxed());
+        }
         define(stmt.name);
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -101,6 +160,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 JEZ.error(stmt.keyword, "Can't return a value from an initializer.");
             }
             resolve(stmt.value);
+            stmt.tail = stmt.value instanceof Expr.Call;
         }
 
         return null;
@@ -108,7 +168,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     //var declaration
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        Local local = declare(stmt.name);
+        if (local != null) {
+            local.declaration = stmt;
+            stmt.slot = local.slot;
+            local.uses.add(() -> stmt.boxed = local.boxed());
+        }
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -120,12 +185,21 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitWhileStmt(Stmt.While stmt) {
         resolve(stmt.condition);
         resolve(stmt.body);
+        if (stmt.increment != null) resolve(stmt.increment);
         return null;
     }
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        Local local = resolveLocal(expr.name, (slot, upvalue, found) -> {
+            expr.slot = slot;
+            expr.upvalue = upvalue;
+            expr.boxed = found.boxed();
+        });
+        if (local != null) {
+            local.assigned = true;
+            if (local.declaration != null) local.declaration.reassigned = true;
+        }
         return null;
     }
     @Override
@@ -180,7 +254,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             JEZ.error(expr.keyword,
                     "Can't use 'super' in a template with no super.");
         }
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr.keyword, (slot, upvalue, found) -> {
+            expr.slot = slot;
+            expr.upvalue = upvalue;
+        });
+        //super calls run on this, found the same way a this expression would be
+        resolveLocal(new Token(TokenType.THIS, "this", null, expr.keyword.line), (slot, upvalue, found) -> {
+            expr.thisSlot = slot;
+            expr.thisUpvalue = upvalue;
+        });
         return null;
     }
     @Override
@@ -189,7 +271,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             JEZ.error(expr.keyword, "Can't use 'this' outside of a template.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        resolveLocal(expr.keyword, (slot, upvalue, found) -> {
+            expr.slot = slot;
+            expr.upvalue = upvalue;
+        });
         return null;
     }
     @Override
@@ -199,10 +284,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+        if (!scopes.isEmpty() && scopes.peek().locals.containsKey(expr.name.lexeme) &&
+                !scopes.peek().locals.get(expr.name.lexeme).defined) {
             JEZ.error(expr.name, "Can not read most recent variable (local) in its own initializer.");
         }
-        resolveLocal(expr, expr.name);
+        resolveLocal(expr.name, (slot, upvalue, found) -> {
+            expr.slot = slot;
+            expr.upvalue = upvalue;
+            expr.boxed = found.boxed();
+        });
         return null;
     }
     //walk and resolve list of statements
@@ -214,44 +304,113 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expr.accept(this);
     }
     //resolve function body(new scope for body then bind var for function parameters)
-    private void resolveFunction(Stmt.Function function, FunctionType type) {
+    private void resolveFunction(Stmt.Function declaration, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        function = new FunctionState(function, scopes.size());
         beginScope();
-        for (Token param : function.parameters) {
-            declare(param);
+        //methods get the receiver in slot zero of their own frame, parameters follow
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            defineImplicit("this");
+        }
+        List<Local> parameters = new ArrayList<>();
+        for (Token param : declaration.parameters) {
+            parameters.add(declare(param));
             define(param);
         }
-        resolve(function.body);
+        resolve(declaration.body);
         endScope();
+        List<Integer> boxed = new ArrayList<>();
+        for (Local parameter : parameters) {
+            if (parameter.boxed()) boxed.add(parameter.slot);
+        }
+        declaration.boxedParameters = toArray(boxed);
+        declaration.stackSize = function.stackSize;
+        declaration.upvalues = toArray(function.upvalues);
+        declaration.upvalueIsLocal = new boolean[function.upvalueIsLocal.size()];
+        for (int i = 0; i < declaration.upvalueIsLocal.length; i++) {
+            declaration.upvalueIsLocal[i] = function.upvalueIsLocal.get(i);
+        }
+        function = function.enclosing;
         currentFunction = enclosingFunction;
     }
-    //new block scope
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+    //new block scope, its stack slots start after the enclosing scope's
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new Scope(function.nextSlot));
     }
+    //once a scope ends every use knows whether its local was boxed
     private void endScope() {
-        scopes.pop();
+        Scope scope = scopes.pop();
+        for (Local local : scope.locals.values()) {
+            for (Runnable use : local.uses) use.run();
+        }
+        //sibling scopes reuse the same stack slots
+        function.nextSlot = scope.firstSlot;
     }
-    //add var to inner scope so it shadows outer ones
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
-        Map<String, Boolean> scope = scopes.peek();
+    //add var to inner scope so it shadows outer ones, returns null for globals
+    private Local declare(Token name) {
+        if (scopes.isEmpty()) return null;
+        Map<String, Local> scope = scopes.peek().locals;
         if (scope.containsKey(name.lexeme)) {
-            JEZ.error(name, "There is already a variable with this name in this scope.");}
-        scope.put(name.lexeme, false);
+            JEZ.error(name, "There is already a variable with this name in this scope.");
+            return scope.get(name.lexeme);
+        }
+        Local local = newLocal();
+        scope.put(name.lexeme, local);
+        return local;
     }
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
-    }
-    //helper for variable resolution
-    private void resolveLocal(Expr expr, Token name) {
+        scopes.peek().locals.get(name.lexeme).defined = true;
+    }
+    //super gets its own single slot scope, this the first slot of a method
+    private Local defineImplicit(String name) {
+        Local local = newLocal();
+        local.defined = true;
+        scopes.peek().locals.put(name, local);
+        return local;
+    }
+    private Local newLocal() {
+        Local local = new Local(function.nextSlot++);
+        function.stackSize = Math.max(function.stackSize, function.nextSlot);
+        return local;
+    }
+    //where a use finds its local, filled in once the declaring scope ends
+    private interface Use {
+        void resolved(int slot, boolean upvalue, Local local);
+    }
+    //helper for variable resolution, returns the local or null for globals
+    private Local resolveLocal(Token name, Use use) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            Local local = scopes.get(i).locals.get(name.lexeme);
+            if (local == null) continue;
+            if (i >= function.firstScope) {
+                local.uses.add(() -> use.resolved(local.slot, false, local));
+            } else {
+                local.captured = true;
+                int index = addUpvalue(function, i, local);
+                local.uses.add(() -> use.resolved(index, true, local));
             }
+            return local;
+        }
+        return null;
+    }
+    //index of the upvalue for a local declared in scopes[scope], threaded through every function in between
+    private static int addUpvalue(FunctionState function, int scope, Local local) {
+        boolean isLocal = scope >= function.enclosing.firstScope;
+        int index = isLocal ? local.slot : addUpvalue(function.enclosing, scope, local);
+        for (int i = 0; i < function.upvalues.size(); i++) {
+            if (function.upvalues.get(i) == index && function.upvalueIsLocal.get(i) == isLocal) return i;
         }
+        function.upvalues.add(index);
+        function.upvalueIsLocal.add(isLocal);
+        return function.upvalues.size() - 1;
     }
-}
+}
\ No newline at end of file
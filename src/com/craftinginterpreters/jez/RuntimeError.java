@@ -2,9 +2,17 @@ package com.craftinginterpreters.jez;
 //display runtime error
 class RuntimeError extends RuntimeException {
     final Token token;
+    final int line;
 
     RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        this.line = token.line;
+    }
+    //for the VM, which only knows the line of the failing instruction
+    RuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
     }
 }
\ No newline at end of file
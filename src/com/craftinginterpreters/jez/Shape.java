@@ -0,0 +1,56 @@
+package com.craftinginterpreters.jez;
+import java.util.HashMap;
+import java.util.Map;
+
+//field layout shared by instances of a template that gained the same fields in the same order
+class Shape {
+    //past these limits an instance stops using shapes and keeps its fields in a map
+    private static final int MAX_FIELDS = 64;
+    private static final int MAX_TRANSITIONS = 16;
+
+    private final Shape root;
+    private final Map<String, Integer> indices;
+    private Map<String, Shape> transitions = null;
+    //number of fields in this layout
+    final int size;
+    //on the root, the most fields any instance has reached, used to size new instances
+    int capacity = 0;
+
+    //empty layout every instance of a template starts with
+    Shape() {
+        this.root = this;
+        this.indices = new HashMap<>();
+        this.size = 0;
+    }
+    private Shape(Shape parent, String name) {
+        this.root = parent.root;
+        this.indices = new HashMap<>(parent.indices);
+        this.indices.put(name, parent.size);
+        this.size = parent.size + 1;
+        if (size > root.capacity) root.capacity = size;
+    }
+    //index of a field in the values array, -1 if this layout does not have it
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        if (index == null) return -1;
+        return index;
+    }
+    //layout after adding a field, or null when the instance should fall back to a map
+    Shape addField(String name) {
+        if (transitions == null) transitions = new HashMap<>();
+        Shape next = transitions.get(name);
+        if (next != null) return next;
+        if (size >= MAX_FIELDS || transitions.size() >= MAX_TRANSITIONS) return null;
+        next = new Shape(this, name);
+        transitions.put(name, next);
+        return next;
+    }
+    //copy an instance's fields out into a map keyed by name
+    Map<String, Object> toMap(Object[] values) {
+        Map<String, Object> fields = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : indices.entrySet()) {
+            fields.put(entry.getKey(), values[entry.getValue()]);
+        }
+        return fields;
+    }
+}
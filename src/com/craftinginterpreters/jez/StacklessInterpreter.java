@@ -0,0 +1,615 @@
+package com.craftinginterpreters.jez;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//walks the same tree as Interpreter without recursing on the java stack, so call depth is bounded by memory, not -Xss
+//every step still to run is a task, a node and the step it resumes at, finished expressions leave their value on a value stack
+class StacklessInterpreter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    //the same caps as VM, a million nested calls fit
+    private static final int MAX_FRAMES = 1 << 20;
+    private static final int MAX_STACK = 1 << 24;
+    //a runaway recursion is a million calls deep, the trace shows the innermost of them
+    private static final int TRACE_LIMIT = 32;
+    final Environment globals = new Environment();
+    //--verbose also prints the calls a runtime error unwound
+    boolean traceErrors = false;
+    //tasks run from the top, a node pushes itself again to resume after the tasks it pushes above it
+    private Object[] tasks = new Object[256];
+    private int[] steps = new int[256];
+    private int taskCount = 0;
+    private Object[] values = new Object[256];
+    private int valueCount = 0;
+    //locals of the running calls, laid out as in Interpreter
+    private Object[] stack = new Object[256];
+    private int fp = 0;
+    private int sp = 0;
+    private Object[] upvalues = new Object[0];
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    //the step the node being visited resumes at
+    private int step;
+    //the task under a call's body, reached when the body ends without a return
+    private static final Object END_OF_BODY = new Object();
+
+    //what one running call restores when it returns, frames are kept and reused as calls come and go
+    private static class CallFrame {
+        //the function running and the line it was called from
+        Stmt.Function function;
+        int line;
+        int callerFp;
+        Object[] callerUpvalues;
+        //tasks and values below the call, everything above them is dropped when it returns
+        int tasks;
+        int values;
+        //the value when the body ends without a return, the instance for initializers and null otherwise
+        Object fallOff;
+        //constructing yields the new instance whatever the initializer returns
+        boolean isConstructor;
+    }
+    //one call in a captured stack
+    static class StackEntry {
+        final String function;
+        final int line;
+
+        StackEntry(String function, int line) {
+            this.function = function;
+            this.line = line;
+        }
+
+        @Override
+        public String toString() {
+            return function + "() called at [line " + line + "]";
+        }
+    }
+
+    StacklessInterpreter() {
+        Interpreter.defineNatives(globals);
+    }
+
+    //public API
+    void interpret(List<Stmt> statements, int stackSize) {
+        upvalues = new Object[0];
+        fp = 0;
+        sp = stackSize;
+        ensureStack(sp);
+        try {
+            execute(statements);
+            run();
+        } catch (RuntimeError error) {
+            JEZ.runtimeError(error);
+            if (traceErrors) {
+                for (StackEntry entry : captureStack(TRACE_LIMIT)) System.err.println("    " + entry);
+                if (frameCount > TRACE_LIMIT) System.err.println("    ... " + (frameCount - TRACE_LIMIT) + " more calls");
+            }
+            reset();
+        }
+    }
+    private void run() {
+        while (taskCount > 0) {
+            taskCount--;
+            Object task = tasks[taskCount];
+            tasks[taskCount] = null;
+            step = steps[taskCount];
+            if (task instanceof Expr) {
+                ((Expr)task).accept(this);
+            } else if (task instanceof Stmt) {
+                ((Stmt)task).accept(this);
+            } else {
+                returnFromCall(frames[frameCount - 1].fallOff);
+            }
+        }
+    }
+    //the running calls innermost first, read off the frames without stopping them, a tail call shows in place of its caller
+    List<StackEntry> captureStack() {
+        return captureStack(frameCount);
+    }
+    List<StackEntry> captureStack(int limit) {
+        List<StackEntry> entries = new ArrayList<>(Math.min(limit, frameCount));
+        for (int i = frameCount - 1; i >= 0 && i >= frameCount - limit; i--) {
+            entries.add(new StackEntry(frames[i].function.name.lexeme, frames[i].line));
+        }
+        return entries;
+    }
+    //drops everything the error interrupted
+    private void reset() {
+        Arrays.fill(tasks, 0, taskCount, null);
+        Arrays.fill(values, 0, valueCount, null);
+        Arrays.fill(stack, null);
+        for (int i = 0; i < frameCount; i++) {
+            frames[i].callerUpvalues = null;
+            frames[i].fallOff = null;
+        }
+        taskCount = 0;
+        valueCount = 0;
+        frameCount = 0;
+    }
+
+    //task and value stacks
+    private void push(Object task, int step) {
+        if (taskCount == tasks.length) {
+            tasks = Arrays.copyOf(tasks, taskCount * 2);
+            steps = Arrays.copyOf(steps, taskCount * 2);
+        }
+        tasks[taskCount] = task;
+        steps[taskCount] = step;
+        taskCount++;
+    }
+    //literals and variables are read right away instead of going through a task
+    private void evaluate(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.Variable) {
+            expr.accept(this);
+        } else {
+            push(expr, 0);
+        }
+    }
+    //pushed last to first so the first runs next
+    private void execute(List<Stmt> statements) {
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            push(statements.get(i), 0);
+        }
+    }
+    private void pushValue(Object value) {
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, valueCount * 2);
+        }
+        values[valueCount++] = value;
+    }
+    private Object popValue() {
+        Object value = values[--valueCount];
+        values[valueCount] = null;
+        return value;
+    }
+    private void ensureStack(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, Math.min(stack.length * 2, MAX_STACK)));
+        }
+    }
+
+    //calls
+    //the callee, the receiver and count arguments are the top values, the receiver is null unless a method was called on it
+    private void call(Expr.Call expr, int count) {
+        int first = valueCount - count;
+        Object callee = values[first - 2];
+        JEZInstance instance = (JEZInstance)values[first - 1];
+        JEZCallable function = expr.cache.check(callee, count, expr.paren);
+        if (function instanceof JEZFunction) {
+            JEZFunction method = (JEZFunction)function;
+            if (instance == null) instance = method.receiver;
+            //a call the body returns as is replaces the caller's frame instead of going on top of it
+            //the callee and arguments stay where they are, just above the values the caller started with
+            if (isTail(expr)) leaveCall();
+            enterCall(method.declaration, method.upvalues, instance, first, count,
+                    method.isInitializer ? instance : null, false, expr.paren);
+        } else if (function instanceof JEZClass) {
+            JEZClass klass = (JEZClass)function;
+            JEZInstance created = new JEZInstance(klass);
+            JEZFunction initializer = klass.findMethod("initialize");
+            if (initializer == null) {
+                dropValues(first - 2);
+                pushValue(created);
+                return;
+            }
+            enterCall(initializer.declaration, initializer.upvalues, created, first, count, created, true, expr.paren);
+        } else {
+            //natives never touch the tree-walking interpreter
+            Object result = function.call(null, Arrays.asList(Arrays.copyOfRange(values, first, valueCount)));
+            dropValues(first - 2);
+            pushValue(result);
+        }
+    }
+    private boolean isTail(Expr.Call expr) {
+        if (frameCount == 0 || !(tasks[taskCount - 1] instanceof Stmt.Return)) return false;
+        Stmt.Return stmt = (Stmt.Return)tasks[taskCount - 1];
+        return stmt.tail && stmt.value == expr;
+    }
+    //the arguments move from the value stack into the new frame, methods keep 'this' in slot zero ahead of them
+    private void enterCall(Stmt.Function declaration, Object[] closure, JEZInstance instance, int first, int count,
+                           Object fallOff, boolean isConstructor, Token paren) {
+        if (frameCount == MAX_FRAMES || sp + declaration.stackSize > MAX_STACK) {
+            throw new RuntimeError(paren, "Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.function = declaration;
+        frame.line = paren.line;
+        frame.callerFp = fp;
+        frame.callerUpvalues = upvalues;
+        frame.fallOff = fallOff;
+        frame.isConstructor = isConstructor;
+        fp = sp;
+        sp = fp + declaration.stackSize;
+        ensureStack(sp);
+        upvalues = closure;
+        int slot = fp;
+        if (instance != null) stack[slot++] = instance;
+        System.arraycopy(values, first, stack, slot, count);
+        dropValues(first - 2);
+        for (int boxed : declaration.boxedParameters) {
+            stack[fp + boxed] = new Cell(stack[fp + boxed]);
+        }
+        frame.tasks = taskCount;
+        frame.values = valueCount;
+        push(END_OF_BODY, 0);
+        execute(declaration.body);
+    }
+    //pops the running call's frame and whatever of its tasks are left
+    private CallFrame leaveCall() {
+        CallFrame frame = frames[--frameCount];
+        Arrays.fill(tasks, frame.tasks, taskCount, null);
+        taskCount = frame.tasks;
+        //drop references so the frame does not keep garbage alive
+        Arrays.fill(stack, fp, sp, null);
+        sp = fp;
+        fp = frame.callerFp;
+        upvalues = frame.callerUpvalues;
+        frame.callerUpvalues = null;
+        return frame;
+    }
+    private void returnFromCall(Object value) {
+        CallFrame frame = leaveCall();
+        dropValues(frame.values);
+        pushValue(frame.isConstructor ? frame.fallOff : value);
+        frame.fallOff = null;
+    }
+    private void dropValues(int count) {
+        Arrays.fill(values, count, valueCount, null);
+        valueCount = count;
+    }
+
+    //expressions, each leaves one value
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (step == 0) {
+            push(expr, 1);
+            evaluate(expr.value);
+            return null;
+        }
+        Object value = values[valueCount - 1];
+        if (expr.slot < 0) {
+            if (expr.global == null) expr.global = globals.cell(expr.name);
+            expr.global.value = value;
+        } else if (expr.boxed) {
+            Object cell = expr.upvalue ? upvalues[expr.slot] : stack[fp + expr.slot];
+            ((Cell)cell).value = value;
+        } else {
+            stack[fp + expr.slot] = value;
+        }
+        return null;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        switch (step) {
+            case 0:
+                push(expr, 1);
+                evaluate(expr.left);
+                return null;
+            case 1:
+                push(expr, 2);
+                evaluate(expr.right);
+                return null;
+        }
+        Object right = popValue();
+        Object left = popValue();
+        pushValue(Interpreter.binary(expr, left, right));
+        return null;
+    }
+    //steps past 1 count the arguments evaluated so far, plus two
+    //obj.name(args) finds the method before the arguments run and calls it with obj as receiver
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (step == 0) {
+            if (expr.callee instanceof Expr.Super) {
+                Expr.Super callee = (Expr.Super)expr.callee;
+                pushValue(superMethod(callee));
+                pushValue(thisForSuper(callee));
+                step = 2;
+            } else {
+                push(expr, 1);
+                evaluate(expr.callee instanceof Expr.Get ? ((Expr.Get)expr.callee).object : expr.callee);
+                return null;
+            }
+        } else if (step == 1) {
+            if (expr.callee instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get)expr.callee;
+                Object object = popValue();
+                if (!(object instanceof JEZInstance)) {
+                    throw new RuntimeError(get.name, "Only objects have properties.");
+                }
+                JEZInstance instance = (JEZInstance)object;
+                JEZFunction method = get.cache.method(instance, get.name);
+                if (method == null) {
+                    pushValue(get.cache.get(instance, get.name));
+                    pushValue(null);
+                } else {
+                    pushValue(method);
+                    pushValue(instance);
+                }
+            } else {
+                pushValue(null);
+            }
+            step = 2;
+        }
+        int evaluated = step - 2;
+        if (evaluated < expr.arguments.size()) {
+            push(expr, step + 1);
+            evaluate(expr.arguments.get(evaluated));
+            return null;
+        }
+        call(expr, evaluated);
+        return null;
+    }
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        if (step == 0) {
+            push(expr, 1);
+            evaluate(expr.object);
+            return null;
+        }
+        Object object = popValue();
+        if (object instanceof JEZInstance) {
+            pushValue(expr.cache.get((JEZInstance)object, expr.name));
+            return null;
+        }
+        throw new RuntimeError(expr.name, "Only objects have properties.");
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        evaluate(expr.expression);
+        return null;
+    }
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        pushValue(expr.value);
+        return null;
+    }
+    //the left value stays as the result when it decides the answer
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        if (step == 0) {
+            push(expr, 1);
+            evaluate(expr.left);
+            return null;
+        }
+        Object left = values[valueCount - 1];
+        if (expr.operator.type == TokenType.OR) {
+            if (Interpreter.isTruthy(left)) return null;
+        } else {
+            if (!Interpreter.isTruthy(left)) return null;
+        }
+        popValue();
+        evaluate(expr.right);
+        return null;
+    }
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        switch (step) {
+            case 0:
+                push(expr, 1);
+                evaluate(expr.object);
+                return null;
+            case 1:
+                if (!(values[valueCount - 1] instanceof JEZInstance)) {
+                    throw new RuntimeError(expr.name, "Only objects have fields.");
+                }
+                push(expr, 2);
+                evaluate(expr.value);
+                return null;
+        }
+        Object value = popValue();
+        JEZInstance object = (JEZInstance)popValue();
+        expr.cache.set(object, expr.name, value);
+        pushValue(value);
+        return null;
+    }
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        pushValue(superMethod(expr).bind(thisForSuper(expr)));
+        return null;
+    }
+    //the superclass method super.name refers to, not yet bound to this
+    private JEZFunction superMethod(Expr.Super expr) {
+        JEZClass superclass = (JEZClass)(expr.upvalue ? upvalues[expr.slot] : stack[fp + expr.slot]);
+        JEZFunction method = superclass.findMethod(expr.method.lexeme);
+        if (method == null) {
+            throw new RuntimeError(expr.method, "Did not create property '" + expr.method.lexeme + "'.");
+        }
+        return method;
+    }
+    private JEZInstance thisForSuper(Expr.Super expr) {
+        return (JEZInstance)(expr.thisUpvalue ? upvalues[expr.thisSlot] : stack[fp + expr.thisSlot]);
+    }
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        pushValue(expr.upvalue ? upvalues[expr.slot] : stack[fp + expr.slot]);
+        return null;
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (step == 0) {
+            push(expr, 1);
+            evaluate(expr.right);
+            return null;
+        }
+        Object right = popValue();
+        if (expr.operator.type == TokenType.BANG) {
+            pushValue(!Interpreter.isTruthy(right));
+            return null;
+        }
+        if (!(right instanceof Double)) {
+            throw new RuntimeError(expr.operator, "Everything in equation must be a number.");
+        }
+        pushValue(-(double)right);
+        return null;
+    }
+    //type inference's unboxed locals are ordinary slots here, nothing reads the flag
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.slot < 0) {
+            if (expr.global == null) expr.global = globals.cell(expr.name);
+            pushValue(expr.global.value);
+            return null;
+        }
+        Object value = expr.upvalue ? upvalues[expr.slot] : stack[fp + expr.slot];
+        pushValue(expr.boxed ? ((Cell)value).value : value);
+        return null;
+    }
+
+    //statements leave the value stack as they found it
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        execute(stmt.statements);
+        return null;
+    }
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (step == 0) {
+            define(stmt.name, stmt.slot, stmt.boxed, null);
+            if (stmt.superclass != null) {
+                push(stmt, 1);
+                evaluate(stmt.superclass);
+                return null;
+            }
+        }
+        Object superclass = null;
+        if (stmt.superclass != null) {
+            superclass = popValue();
+            if (!(superclass instanceof JEZClass)) {
+                throw new RuntimeError(stmt.name, "Super must be a template.");
+            }
+            //methods capture the superclass from the slot the resolver set aside for it
+            stack[fp + stmt.superSlot] = superclass;
+        }
+        Map<String, JEZFunction> methods = new HashMap<>();
+        for (Stmt.Function method : stmt.methods) {
+            JEZFunction function = new JEZFunction(method, captureUpvalues(method),
+                    method.name.lexeme.equals("initialize"));
+            methods.put(method.name.lexeme, function);
+        }
+        JEZClass klass = new JEZClass(stmt.name.lexeme, (JEZClass)superclass, methods);
+        store(stmt.name, stmt.slot, stmt.boxed, klass);
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (step == 0) {
+            push(stmt, 1);
+            evaluate(stmt.expression);
+            return null;
+        }
+        popValue();
+        return null;
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        define(stmt.name, stmt.slot, stmt.boxed, null);
+        JEZFunction function = new JEZFunction(stmt, captureUpvalues(stmt), false);
+        store(stmt.name, stmt.slot, stmt.boxed, function);
+        return null;
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        if (step == 0) {
+            push(stmt, 1);
+            evaluate(stmt.condition);
+            return null;
+        }
+        if (Interpreter.isTruthy(popValue())) {
+            push(stmt.thenBranch, 0);
+        } else if (stmt.elseBranch != null) {
+            push(stmt.elseBranch, 0);
+        }
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        if (step == 0) {
+            push(stmt, 1);
+            evaluate(stmt.expression);
+            return null;
+        }
+        System.out.println(Interpreter.stringify(popValue()));
+        return null;
+    }
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (step == 0 && stmt.value != null) {
+            push(stmt, 1);
+            evaluate(stmt.value);
+            return null;
+        }
+        returnFromCall(stmt.value == null ? null : popValue());
+        return null;
+    }
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (step == 0 && stmt.initializer != null) {
+            push(stmt, 1);
+            evaluate(stmt.initializer);
+            return null;
+        }
+        define(stmt.name, stmt.slot, stmt.boxed, stmt.initializer == null ? null : popValue());
+        return null;
+    }
+    //steps: 1 tests the condition's value, 2 follows the body, 3 drops the increment's value
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        switch (step) {
+            case 1:
+                if (!Interpreter.isTruthy(popValue())) return null;
+                push(stmt, 2);
+                push(stmt.body, 0);
+                return null;
+            case 2:
+                if (stmt.increment != null) {
+                    push(stmt, 3);
+                    evaluate(stmt.increment);
+                    return null;
+                }
+                break;
+            case 3:
+                popValue();
+                break;
+        }
+        push(stmt, 1);
+        evaluate(stmt.condition);
+        return null;
+    }
+
+    //locals and closures, the same as in Interpreter
+    private Object[] captureUpvalues(Stmt.Function declaration) {
+        Object[] captured = new Object[declaration.upvalues.length];
+        for (int i = 0; i < captured.length; i++) {
+            int index = declaration.upvalues[i];
+            captured[i] = declaration.upvalueIsLocal[i] ? stack[fp + index] : upvalues[index];
+        }
+        return captured;
+    }
+    private void define(Token name, int slot, boolean boxed, Object value) {
+        if (slot < 0) {
+            globals.define(name.lexeme, value);
+        } else if (boxed) {
+            stack[fp + slot] = new Cell(value);
+        } else {
+            stack[fp + slot] = value;
+        }
+    }
+    private void store(Token name, int slot, boolean boxed, Object value) {
+        if (slot < 0) {
+            globals.assign(name, value);
+        } else if (boxed) {
+            ((Cell)stack[fp + slot]).value = value;
+        } else {
+            stack[fp + slot] = value;
+        }
+    }
+}
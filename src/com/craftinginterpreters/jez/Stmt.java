@@ -14,8 +14,24 @@ abstract class Stmt {
         R visitVarStmt(Var stmt);
         R visitWhileStmt(While stmt);
     }
+    //which subclass a node is, for evaluators that switch on it instead of going through accept
+    static final int BLOCK = 0;
+    static final int CLASS = 1;
+    static final int EXPRESSION = 2;
+    static final int FUNCTION = 3;
+    static final int IF = 4;
+    static final int PRINT = 5;
+    static final int RETURN = 6;
+    static final int VAR = 7;
+    static final int WHILE = 8;
+    final int kind;
+
+    Stmt(int kind) {
+        this.kind = kind;
+    }
     static class Block extends Stmt {
         Block(List<Stmt> statements) {
+            super(BLOCK);
             this.statements = statements;
         }
 
@@ -27,6 +43,7 @@ abstract class Stmt {
     }
     static class Class extends Stmt {
         Class(Token name, Expr superclass, List<Stmt.Function> methods) {
+            super(CLASS);
             this.name = name;
             this.superclass = superclass;
             this.methods = methods;
@@ -39,9 +56,16 @@ abstract class Stmt {
         final Token name;
         final Expr superclass;
         final List<Stmt.Function> methods;
+        //stack slot of the template name, -1 when it is a global
+        int slot = -1;
+        //the name lives in a cell because its methods capture it
+        boolean boxed;
+        //stack slot the superclass is kept in for methods to capture
+        int superSlot;
     }
     static class Expression extends Stmt {
         Expression(Expr expression) {
+            super(EXPRESSION);
             this.expression = expression;
         }
 
@@ -53,6 +77,7 @@ abstract class Stmt {
     }
     static class Function extends Stmt {
         Function(Token name, List<Token> parameters, List<Stmt> body) {
+            super(FUNCTION);
             this.name = name;
             this.parameters = parameters;
             this.body = body;
@@ -65,9 +90,28 @@ abstract class Stmt {
         final Token name;
         final List<Token> parameters;
         final List<Stmt> body;
+        //stack slot of the function name, -1 when it is a global
+        int slot = -1;
+        //the name lives in a cell because a closure captures it
+        boolean boxed;
+        //stack slots a call needs for the receiver, parameters and locals, set by the resolver
+        int stackSize;
+        //stack slots of parameters that are captured and assigned, wrapped in cells on entry
+        int[] boxedParameters;
+        //where each captured value comes from, a stack slot or an upvalue of the enclosing function
+        int[] upvalues;
+        //whether each upvalue is taken from the enclosing stack frame
+        boolean[] upvalueIsLocal;
+        //calls the tree-walker ran, negative once this or backEdges reaches its threshold and the body is queued for the JIT
+        int calls;
+        //loop iterations the tree-walker ran in the body
+        int backEdges;
+        //entry point of the class the JIT generated for the body, set by the compiler thread, null until then
+        volatile java.lang.invoke.MethodHandle compiled;
     }
     static class If extends Stmt {
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+            super(IF);
             this.condition = condition;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
@@ -83,6 +127,7 @@ abstract class Stmt {
     }
     static class Print extends Stmt {
         Print(Expr expression) {
+            super(PRINT);
             this.expression = expression;
         }
 
@@ -94,6 +139,7 @@ abstract class Stmt {
     }
     static class Return extends Stmt {
         Return(Token keyword, Expr value) {
+            super(RETURN);
             this.keyword = keyword;
             this.value = value;
         }
@@ -104,9 +150,12 @@ abstract class Stmt {
 
         final Token keyword;
         final Expr value;
+        //the value is a call returned as is, it runs once the caller's frame is gone, set by the resolver
+        boolean tail;
     }
     static class Var extends Stmt {
         Var(Token name, Expr initializer) {
+            super(VAR);
             this.name = name;
             this.initializer = initializer;
         }
@@ -117,11 +166,21 @@ abstract class Stmt {
 
         final Token name;
         final Expr initializer;
+        //stack slot of the variable, -1 when it is a global
+        int slot = -1;
+        //the variable lives in a cell because it is captured and assigned
+        boolean boxed;
+        //whether any assignment targets this local, set by the resolver
+        boolean reassigned;
+        //the local is a proven number kept in the frame's double slots, set by type inference
+        boolean unboxed;
     }
     static class While extends Stmt {
-        While(Expr condition, Stmt body) {
+        While(Expr condition, Stmt body, Expr increment) {
+            super(WHILE);
             this.condition = condition;
             this.body = body;
+            this.increment = increment;
         }
 
         <R> R accept(Visitor<R> visitor) {
@@ -130,6 +189,11 @@ abstract class Stmt {
 
         final Expr condition;
         final Stmt body;
+        final Expr increment;
+        //iterations the tree-walker ran, negative once the loop is queued for on-stack replacement
+        int backEdges;
+        //the loop compiled to take over a running frame, set by the compiler thread, null until then
+        volatile java.lang.invoke.MethodHandle compiled;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,265 @@
+package com.craftinginterpreters.jez;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+//proves which locals only ever hold numbers, flow-insensitive: a local's type covers its initializer and every assignment
+//binary and unary nodes whose operands are proven numbers get marked numeric and skip their checks and boxing
+//number locals no closure captures get marked unboxed and live in the frame's double slots
+class TypeInference implements Expr.Visitor<TypeInference.Type>, Stmt.Visitor<Void> {
+    //NONE is what an expression that never finishes produces, so it joins with anything
+    enum Type { NONE, NUMBER, STRING, BOOLEAN, ANY }
+
+    private static class Local {
+        Type type = Type.NONE;
+        //read or assigned from a function nested inside the one declaring it
+        boolean captured = false;
+    }
+    private static class Scope {
+        final Map<String, Local> locals = new HashMap<>();
+        //how many functions deep the scope is, the top level is zero
+        final int function;
+        Scope(int function) {
+            this.function = function;
+        }
+    }
+    //one per var declaration, kept across passes while the types settle
+    private final Map<Stmt.Var, Local> declarations = new IdentityHashMap<>();
+    //the same scopes the resolver walks, globals are never in them
+    private final Deque<Scope> scopes = new ArrayDeque<>();
+    private int function = 0;
+    //parameters, this, super and function and template names can hold anything
+    private static final Local UNKNOWN = new Local();
+    private boolean changed;
+    //set for the last pass, once types and captures are final
+    private boolean marking = false;
+
+    static {
+        UNKNOWN.type = Type.ANY;
+    }
+
+    //each pass can only widen a local's type, so this stops once a pass changes nothing
+    void infer(List<Stmt> statements) {
+        do {
+            changed = false;
+            resolve(statements);
+        } while (changed);
+        marking = true;
+        resolve(statements);
+    }
+    private void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+    private Type infer(Expr expr) {
+        return expr.accept(this);
+    }
+    private static Type join(Type a, Type b) {
+        if (a == Type.NONE) return b;
+        if (b == Type.NONE || a == b) return a;
+        return Type.ANY;
+    }
+    private void declare(String name, Local local) {
+        if (!scopes.isEmpty()) scopes.peek().locals.put(name, local);
+    }
+    private Local lookup(Token name) {
+        for (Scope scope : scopes) {
+            Local local = scope.locals.get(name.lexeme);
+            if (local == null) continue;
+            if (scope.function != function) local.captured = true;
+            return local;
+        }
+        return null;
+    }
+    //only read once marking, before that a capture later in the pass could still turn up
+    private boolean unboxed(Local local) {
+        return marking && local != null && local != UNKNOWN && local.type == Type.NUMBER && !local.captured;
+    }
+    private void beginScope() {
+        scopes.push(new Scope(function));
+    }
+    private void widen(Local local, Type type) {
+        if (local == null || local == UNKNOWN) return;
+        Type joined = join(local.type, type);
+        if (joined != local.type) {
+            local.type = joined;
+            changed = true;
+        }
+    }
+    private void resolveFunction(Stmt.Function declaration, boolean method) {
+        function++;
+        beginScope();
+        if (method) declare("this", UNKNOWN);
+        for (Token parameter : declaration.parameters) {
+            declare(parameter.lexeme, UNKNOWN);
+        }
+        resolve(declaration.body);
+        scopes.pop();
+        function--;
+    }
+
+    @Override
+    public Type visitAssignExpr(Expr.Assign expr) {
+        Type type = infer(expr.value);
+        Local local = lookup(expr.name);
+        widen(local, type);
+        expr.unboxed = unboxed(local);
+        return type;
+    }
+    @Override
+    public Type visitBinaryExpr(Expr.Binary expr) {
+        Type left = infer(expr.left);
+        Type right = infer(expr.right);
+        boolean numbers = join(left, right) == Type.NUMBER || (left == Type.NONE && right == Type.NONE);
+        switch (expr.operator.type) {
+            case MINUS:
+            case SLASH:
+            case STAR:
+                expr.numeric = numbers;
+                return Type.NUMBER;
+            case PLUS:
+                expr.numeric = numbers;
+                if (numbers) return Type.NUMBER;
+                Type joined = join(left, right);
+                if (joined == Type.STRING) return Type.STRING;
+                //a number and a string never add up, anything else may be either
+                if (joined == Type.ANY && left != Type.ANY && right != Type.ANY) return Type.NONE;
+                return Type.ANY;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                expr.numeric = numbers;
+                return Type.BOOLEAN;
+        }
+        return Type.BOOLEAN;
+    }
+    @Override
+    public Type visitCallExpr(Expr.Call expr) {
+        infer(expr.callee);
+        for (Expr argument : expr.arguments) {
+            infer(argument);
+        }
+        return Type.ANY;
+    }
+    @Override
+    public Type visitGetExpr(Expr.Get expr) {
+        infer(expr.object);
+        return Type.ANY;
+    }
+    @Override
+    public Type visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+    @Override
+    public Type visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double) return Type.NUMBER;
+        if (expr.value instanceof String) return Type.STRING;
+        if (expr.value instanceof Boolean) return Type.BOOLEAN;
+        return Type.ANY;
+    }
+    //the value is one operand or the other
+    @Override
+    public Type visitLogicalExpr(Expr.Logical expr) {
+        return join(infer(expr.left), infer(expr.right));
+    }
+    @Override
+    public Type visitSetExpr(Expr.Set expr) {
+        infer(expr.object);
+        return infer(expr.value);
+    }
+    @Override
+    public Type visitSuperExpr(Expr.Super expr) {
+        return Type.ANY;
+    }
+    @Override
+    public Type visitThisExpr(Expr.This expr) {
+        return Type.ANY;
+    }
+    @Override
+    public Type visitUnaryExpr(Expr.Unary expr) {
+        Type right = infer(expr.right);
+        if (expr.operator.type == TokenType.BANG) return Type.BOOLEAN;
+        expr.numeric = right == Type.NUMBER || right == Type.NONE;
+        return Type.NUMBER;
+    }
+    @Override
+    public Type visitVariableExpr(Expr.Variable expr) {
+        Local local = lookup(expr.name);
+        expr.unboxed = unboxed(local);
+        if (local == null) return Type.ANY;
+        return local.type;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        resolve(stmt.statements);
+        scopes.pop();
+        return null;
+    }
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name.lexeme, UNKNOWN);
+        if (stmt.superclass != null) {
+            infer(stmt.superclass);
+            beginScope();
+            declare("super", UNKNOWN);
+        }
+        for (Stmt.Function method : stmt.methods) {
+            resolveFunction(method, true);
+        }
+        if (stmt.superclass != null) scopes.pop();
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(stmt.name.lexeme, UNKNOWN);
+        resolveFunction(stmt, false);
+        return null;
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) infer(stmt.value);
+        return null;
+    }
+    //declared after the initializer, which can not read the variable it starts
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Type type = stmt.initializer == null ? Type.ANY : infer(stmt.initializer);
+        if (scopes.isEmpty()) return null;
+        Local local = declarations.computeIfAbsent(stmt, declaration -> new Local());
+        widen(local, type);
+        declare(stmt.name.lexeme, local);
+        stmt.unboxed = unboxed(local);
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        infer(stmt.condition);
+        stmt.body.accept(this);
+        if (stmt.increment != null) infer(stmt.increment);
+        return null;
+    }
+}
@@ -0,0 +1,542 @@
+package com.craftinginterpreters.jez;
+import java.util.Arrays;
+import java.util.List;
+
+//stack machine that runs the bytecode made by Compiler
+class VM {
+    //deep enough for a million nested calls, small enough that runaway recursion fails before the heap does
+    private static final int MAX_FRAMES = 1 << 20;
+    private static final int MAX_STACK = 1 << 24;
+    final Environment globals = new Environment();
+    private Object[] stack = new Object[256];
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    //open upvalues, sorted with the highest stack slot first
+    private VMUpvalue openUpvalues = null;
+
+    //one active call, its slots start at base with the callee or receiver
+    private static class CallFrame {
+        VMClosure closure;
+        int ip;
+        int base;
+        //constructing yields the new instance whatever the initializer returns
+        boolean isConstructor;
+    }
+
+    VM() {
+        Interpreter.defineNatives(globals);
+    }
+
+    //public API
+    void interpret(List<Stmt> statements) {
+        try {
+            VMFunction script = new Compiler().compileScript(statements);
+            VMClosure closure = new VMClosure(script);
+            ensureStack(script.maxStack);
+            stack[0] = closure;
+            pushFrame(closure, 0, false);
+            run(1);
+        } catch (RuntimeError error) {
+            JEZ.runtimeError(error);
+        } finally {
+            frameCount = 0;
+            openUpvalues = null;
+            Arrays.fill(stack, null);
+        }
+    }
+    private void run(int stackTop) {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        Object[] stack = this.stack;
+        int ip = frame.ip;
+        int base = frame.base;
+        int sp = stackTop;
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT:
+                    stack[sp++] = constants[readInt(code, ip)];
+                    ip += 4;
+                    break;
+                case OpCode.NIL:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = true;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = false;
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+                case OpCode.GET_LOCAL:
+                    stack[sp++] = stack[base + readInt(code, ip)];
+                    ip += 4;
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[base + readInt(code, ip)] = stack[sp - 1];
+                    ip += 4;
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    Token name = (Token) constants[readInt(code, ip)];
+                    ip += 4;
+                    stack[sp++] = globals.get(name);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    String name = (String) constants[readInt(code, ip)];
+                    ip += 4;
+                    globals.define(name, stack[--sp]);
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    Token name = (Token) constants[readInt(code, ip)];
+                    ip += 4;
+                    globals.assign(name, stack[sp - 1]);
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    VMUpvalue upvalue = frame.closure.upvalues[readInt(code, ip)];
+                    ip += 4;
+                    stack[sp++] = upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed;
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    VMUpvalue upvalue = frame.closure.upvalues[readInt(code, ip)];
+                    ip += 4;
+                    if (upvalue.slot >= 0) {
+                        stack[upvalue.slot] = stack[sp - 1];
+                    } else {
+                        upvalue.closed = stack[sp - 1];
+                    }
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    Token name = (Token) constants[readInt(code, ip)];
+                    ip += 4;
+                    stack[sp - 1] = getProperty(stack[sp - 1], name);
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    Token name = (Token) constants[readInt(code, ip)];
+                    ip += 4;
+                    Object object = stack[sp - 2];
+                    if (!(object instanceof VMInstance)) {
+                        throw new RuntimeError(name, "Only objects have fields.");
+                    }
+                    Object value = stack[--sp];
+                    ((VMInstance) object).fields.put(name.lexeme, value);
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case OpCode.CHECK_FIELDS: {
+                    Token name = (Token) constants[readInt(code, ip)];
+                    ip += 4;
+                    if (!(stack[sp - 1] instanceof VMInstance)) {
+                        throw new RuntimeError(name, "Only objects have fields.");
+                    }
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    Token name = (Token) constants[readInt(code, ip)];
+                    ip += 4;
+                    VMClass superclass = (VMClass) stack[--sp];
+                    VMClosure method = superclass.methods.get(name.lexeme);
+                    if (method == null) {
+                        throw new RuntimeError(name, "Did not create property '" + name.lexeme + "'.");
+                    }
+                    stack[sp - 1] = new VMBoundMethod(stack[sp - 1], method);
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = Interpreter.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object b = stack[--sp];
+                    stack[sp - 1] = !Interpreter.isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumbers(a, b, frame, ip);
+                    stack[sp - 1] = (double) a > (double) b;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumbers(a, b, frame, ip);
+                    stack[sp - 1] = (double) a >= (double) b;
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumbers(a, b, frame, ip);
+                    stack[sp - 1] = (double) a < (double) b;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumbers(a, b, frame, ip);
+                    stack[sp - 1] = (double) a <= (double) b;
+                    break;
+                }
+                //addition or concatenate two strings
+                case OpCode.ADD: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    if (a instanceof Double && b instanceof Double) {
+                        stack[sp - 1] = (double) a + (double) b;
+                    } else if (a instanceof String && b instanceof String) {
+                        stack[sp - 1] = (String) a + (String) b;
+                    } else {
+                        throw error(frame, ip, "Addition must be between two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumbers(a, b, frame, ip);
+                    stack[sp - 1] = (double) a - (double) b;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumbers(a, b, frame, ip);
+                    stack[sp - 1] = (double) a * (double) b;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object b = stack[--sp];
+                    Object a = stack[sp - 1];
+                    checkNumbers(a, b, frame, ip);
+                    stack[sp - 1] = (double) a / (double) b;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE:
+                    if (!(stack[sp - 1] instanceof Double)) {
+                        throw error(frame, ip, "Everything in equation must be a number.");
+                    }
+                    stack[sp - 1] = -(double) stack[sp - 1];
+                    break;
+                case OpCode.PRINT:
+                    System.out.println(Interpreter.stringify(stack[--sp]));
+                    break;
+                case OpCode.JUMP:
+                    ip += readInt(code, ip) + 4;
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (Interpreter.isTruthy(stack[sp - 1])) {
+                        ip += 4;
+                    } else {
+                        ip += readInt(code, ip) + 4;
+                    }
+                    break;
+                case OpCode.LOOP:
+                    ip -= readInt(code, ip) - 4;
+                    break;
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    sp = callValue(sp - argCount - 1, argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    stack = this.stack;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.INVOKE: {
+                    Token name = (Token) constants[readInt(code, ip)];
+                    int argCount = code[ip + 4] & 0xff;
+                    ip += 5;
+                    frame.ip = ip;
+                    sp = invoke(name, sp - argCount - 1, argCount);
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    stack = this.stack;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                //superinstructions, each reads the operands of its sequence and leaves ip past the whole of it
+                case OpCode.GET_LOCAL_CONSTANT:
+                    stack[sp++] = stack[base + readInt(code, ip)];
+                    stack[sp++] = constants[readInt(code, ip + 5)];
+                    ip += 9;
+                    break;
+                case OpCode.ADD_LOCAL_CONSTANT: {
+                    Object a = stack[base + readInt(code, ip)];
+                    Object b = constants[readInt(code, ip + 5)];
+                    ip += 10;
+                    if (a instanceof Double && b instanceof Double) {
+                        stack[sp++] = (double) a + (double) b;
+                    } else if (a instanceof String && b instanceof String) {
+                        stack[sp++] = (String) a + (String) b;
+                    } else {
+                        throw error(frame, ip, "Addition must be between two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OpCode.SET_LOCAL_POP:
+                    stack[base + readInt(code, ip)] = stack[--sp];
+                    ip += 5;
+                    break;
+                case OpCode.GET_LOCAL_PROPERTY: {
+                    Token name = (Token) constants[readInt(code, ip + 5)];
+                    stack[sp++] = getProperty(stack[base + readInt(code, ip)], name);
+                    ip += 9;
+                    break;
+                }
+                //a false comparison jumps one past the jump's target, the POP there is for a condition that is gone
+                case OpCode.LESS_JUMP:
+                case OpCode.LESS_EQUAL_JUMP:
+                case OpCode.GREATER_JUMP:
+                case OpCode.GREATER_EQUAL_JUMP: {
+                    Object b = stack[--sp];
+                    Object a = stack[--sp];
+                    checkNumbers(a, b, frame, ip);
+                    if (compare(code[ip - 1], (double) a, (double) b)) {
+                        ip += 6;
+                    } else {
+                        ip += readInt(code, ip + 1) + 6;
+                    }
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    VMFunction function = (VMFunction) constants[readInt(code, ip)];
+                    ip += 4;
+                    VMClosure closure = new VMClosure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] != 0;
+                        int index = readInt(code, ip);
+                        ip += 4;
+                        if (isLocal) {
+                            closure.upvalues[i] = captureUpvalue(base + index);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    if (frame.isConstructor) result = stack[base];
+                    frame.closure = null;
+                    frameCount--;
+                    if (frameCount == 0) return;
+                    sp = base;
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLASS: {
+                    String name = (String) constants[readInt(code, ip)];
+                    boolean hasSuperclass = code[ip + 4] != 0;
+                    ip += 5;
+                    VMClass superclass = null;
+                    if (hasSuperclass) {
+                        if (!(stack[sp - 1] instanceof VMClass)) {
+                            throw error(frame, ip, "Super must be a template.");
+                        }
+                        superclass = (VMClass) stack[sp - 1];
+                    }
+                    stack[sp++] = new VMClass(name, superclass);
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = (String) constants[readInt(code, ip)];
+                    ip += 4;
+                    VMClosure method = (VMClosure) stack[--sp];
+                    ((VMClass) stack[sp - 1]).addMethod(name, method);
+                    break;
+                }
+                default:
+                    throw error(frame, ip, "Unknown opcode " + code[ip - 1] + ".");
+            }
+        }
+    }
+    //fields shadow methods, methods come back bound to the instance
+    static Object getProperty(Object object, Token name) {
+        if (!(object instanceof VMInstance)) {
+            throw new RuntimeError(name, "Only objects have properties.");
+        }
+        VMInstance instance = (VMInstance) object;
+        Object value = instance.fields.get(name.lexeme);
+        if (value != null || instance.fields.containsKey(name.lexeme)) return value;
+        VMClosure method = instance.klass.methods.get(name.lexeme);
+        if (method != null) return new VMBoundMethod(instance, method);
+        throw new RuntimeError(name, "You did not define '" + name.lexeme + "'.");
+    }
+    private static boolean compare(byte op, double a, double b) {
+        switch (op) {
+            case OpCode.LESS_JUMP: return a < b;
+            case OpCode.LESS_EQUAL_JUMP: return a <= b;
+            case OpCode.GREATER_JUMP: return a > b;
+        }
+        return a >= b;
+    }
+    //receiver.name(args) with the receiver in the callee slot, a field holding a callable is called like any value
+    private int invoke(Token name, int receiverSlot, int argCount) {
+        Object receiver = stack[receiverSlot];
+        if (!(receiver instanceof VMInstance)) {
+            throw new RuntimeError(name, "Only objects have properties.");
+        }
+        VMInstance instance = (VMInstance) receiver;
+        Object field = instance.fields.get(name.lexeme);
+        if (field != null || instance.fields.containsKey(name.lexeme)) {
+            stack[receiverSlot] = field;
+            return callValue(receiverSlot, argCount);
+        }
+        VMClosure method = instance.klass.methods.get(name.lexeme);
+        if (method == null) {
+            throw new RuntimeError(name, "You did not define '" + name.lexeme + "'.");
+        }
+        call(method, receiverSlot, argCount, false);
+        return receiverSlot + argCount + 1;
+    }
+    //calls the value in the callee slot and returns the new stack top
+    private int callValue(int calleeSlot, int argCount) {
+        Object callee = stack[calleeSlot];
+        if (callee instanceof VMClosure) {
+            call((VMClosure) callee, calleeSlot, argCount, false);
+            return calleeSlot + argCount + 1;
+        }
+        if (callee instanceof VMBoundMethod) {
+            VMBoundMethod bound = (VMBoundMethod) callee;
+            stack[calleeSlot] = bound.receiver;
+            call(bound.method, calleeSlot, argCount, false);
+            return calleeSlot + argCount + 1;
+        }
+        if (callee instanceof VMClass) {
+            VMClass klass = (VMClass) callee;
+            VMClosure initializer = klass.initializer;
+            if (initializer == null && argCount != 0) {
+                throw arityError(0, argCount);
+            }
+            stack[calleeSlot] = new VMInstance(klass);
+            if (initializer == null) return calleeSlot + 1;
+            call(initializer, calleeSlot, argCount, true);
+            return calleeSlot + argCount + 1;
+        }
+        if (callee instanceof JEZCallable) {
+            JEZCallable function = (JEZCallable) callee;
+            if (argCount != function.arity()) {
+                throw arityError(function.arity(), argCount);
+            }
+            //natives never touch the tree-walking interpreter
+            stack[calleeSlot] = callNative(function, calleeSlot + 1, argCount);
+            return calleeSlot + 1;
+        }
+        CallFrame frame = frames[frameCount - 1];
+        throw error(frame, frame.ip, "Can only call functions and templates.");
+    }
+    //arguments sit on the stack from first, up to four go through the fixed-arity entry points
+    private Object callNative(JEZCallable function, int first, int argCount) {
+        switch (argCount) {
+            case 0: return function.call0(null);
+            case 1: return function.call1(null, stack[first]);
+            case 2: return function.call2(null, stack[first], stack[first + 1]);
+            case 3: return function.call3(null, stack[first], stack[first + 1], stack[first + 2]);
+            case 4: return function.call4(null, stack[first], stack[first + 1], stack[first + 2], stack[first + 3]);
+        }
+        return function.call(null, Arrays.asList(Arrays.copyOfRange(stack, first, first + argCount)));
+    }
+    private void call(VMClosure closure, int base, int argCount, boolean isConstructor) {
+        if (argCount != closure.function.arity) {
+            throw arityError(closure.function.arity, argCount);
+        }
+        if (frameCount == MAX_FRAMES || base + closure.function.maxStack > MAX_STACK) {
+            CallFrame frame = frames[frameCount - 1];
+            throw error(frame, frame.ip, "Stack overflow.");
+        }
+        ensureStack(base + closure.function.maxStack);
+        pushFrame(closure, base, isConstructor);
+    }
+    private void pushFrame(VMClosure closure, int base, boolean isConstructor) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        frame.isConstructor = isConstructor;
+        frameCount++;
+    }
+    private void ensureStack(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, Math.min(stack.length * 2, MAX_STACK)));
+        }
+    }
+    //reuse the upvalue for a slot if a closure already captured it
+    private VMUpvalue captureUpvalue(int slot) {
+        VMUpvalue previous = null;
+        VMUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+        VMUpvalue created = new VMUpvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+    //move every captured variable at or above last off the stack
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            VMUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+    private void checkNumbers(Object a, Object b, CallFrame frame, int ip) {
+        if (a instanceof Double && b instanceof Double) return;
+        throw error(frame, ip, "Everything in equation must be a number.");
+    }
+    private RuntimeError arityError(int arity, int argCount) {
+        CallFrame frame = frames[frameCount - 1];
+        return error(frame, frame.ip, "There needs to be " + arity +
+                " arguments but you gave " + argCount + ".");
+    }
+    private static int readInt(byte[] code, int offset) {
+        return (code[offset] << 24) | ((code[offset + 1] & 0xff) << 16)
+                | ((code[offset + 2] & 0xff) << 8) | (code[offset + 3] & 0xff);
+    }
+    //errors report the line of the instruction just read
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        return new RuntimeError(frame.closure.function.chunk.lines[ip - 1], message);
+    }
+}
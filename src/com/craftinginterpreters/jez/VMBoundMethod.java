@@ -0,0 +1,15 @@
+package com.craftinginterpreters.jez;
+//method read off an instance, remembers the receiver for 'this'
+class VMBoundMethod {
+    final Object receiver;
+    final VMClosure method;
+
+    VMBoundMethod(Object receiver, VMClosure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package com.craftinginterpreters.jez;
+import java.util.HashMap;
+import java.util.Map;
+
+class VMClass {
+    final String name;
+    //inherited methods are copied in when the template is created, so lookups never walk supers
+    final Map<String, VMClosure> methods = new HashMap<>();
+    VMClosure initializer = null;
+
+    VMClass(String name, VMClass superclass) {
+        this.name = name;
+        if (superclass != null) {
+            methods.putAll(superclass.methods);
+            initializer = superclass.initializer;
+        }
+    }
+    void addMethod(String name, VMClosure method) {
+        methods.put(name, method);
+        if (name.equals("initialize")) initializer = method;
+    }
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,15 @@
+package com.craftinginterpreters.jez;
+//function plus the variables it captured
+class VMClosure {
+    final VMFunction function;
+    final VMUpvalue[] upvalues;
+
+    VMClosure(VMFunction function) {
+        this.function = function;
+        this.upvalues = new VMUpvalue[function.upvalueCount];
+    }
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
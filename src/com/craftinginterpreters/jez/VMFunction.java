@@ -0,0 +1,23 @@
+package com.craftinginterpreters.jez;
+//compiled form of a function body, shared by every closure made from it
+class VMFunction {
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+    //stack slots a call needs, counting the callee and locals
+    int maxStack = 1;
+    //code for the register VM instead, set by RegisterCompiler, with the registers a call needs
+    RegisterChunk registerChunk = null;
+    int registerCount = 1;
+
+    VMFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
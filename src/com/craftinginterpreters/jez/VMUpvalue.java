@@ -0,0 +1,13 @@
+package com.craftinginterpreters.jez;
+//captured variable, points at a stack slot until its scope ends and then holds the value itself
+class VMUpvalue {
+    int slot;
+    Object closed;
+    //next open upvalue further down the stack
+    VMUpvalue next;
+
+    VMUpvalue(int slot, VMUpvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
@@ -12,103 +12,169 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
-        //create class and fields for syntax tree
+        //create class and fields for syntax tree, fields after | are filled in later and not passed to the constructor
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Template      : Token name, Expr.Variable superclass," +
-                            " List<Stmt.Function> methods",
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Assign   : Token name, Expr value" +
+                        " | int slot = -1 //stack slot, or upvalue index when upvalue is set, -1 for globals, set by the resolver" +
+                        "; boolean upvalue //the variable belongs to an enclosing function and is reached through the closure" +
+                        "; boolean boxed //the slot holds a cell shared with closures because the variable is captured and assigned" +
+                        "; boolean unboxed //the local is a proven number kept in the frame's double slots, set by type inference" +
+                        "; Cell global //cell of the global it names, cached by the first assignment that finds it",
+                "Binary   : Expr left, Token operator, Expr right" +
+                        " | int specialized //operand types seen so far, one of the interpreter's UNINITIALIZED, NUMBERS, STRINGS or GENERIC" +
+                        "; boolean numeric //both operands are proven numbers, set by type inference",
+                "Call     : Expr callee, Token paren, List<Expr> arguments" +
+                        " | final CallCache cache = new CallCache() //callees this call already checked, filled in by the interpreter",
+                "Get      : Expr object, Token name" +
+                        " | final PropertyCache cache = new PropertyCache() //shapes seen by this get, filled in by the interpreter",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
-                "Unary    : Token operator, Expr right",
-                "Variable : Token name"
+                "Set      : Expr object, Token name, Expr value" +
+                        " | final PropertyCache cache = new PropertyCache() //shapes seen by this set, filled in by the interpreter",
+                "Super    : Token keyword, Token method" +
+                        " | int slot //stack slot holding the superclass, or its upvalue index, set by the resolver" +
+                        "; boolean upvalue //the superclass is reached through the closure" +
+                        "; int thisSlot //stack slot zero, or the receiver's upvalue index" +
+                        "; boolean thisUpvalue //the receiver is reached through the closure",
+                "This     : Token keyword" +
+                        " | int slot //stack slot zero, or the receiver's upvalue index, set by the resolver" +
+                        "; boolean upvalue //the receiver is reached through the closure",
+                "Unary    : Token operator, Expr right" +
+                        " | int specialized //operand types seen so far, one of the interpreter's UNINITIALIZED, NUMBERS or GENERIC" +
+                        "; boolean numeric //the operand is a proven number, set by type inference",
+                "Variable : Token name" +
+                        " | int slot = -1 //stack slot, or upvalue index when upvalue is set, -1 for globals, set by the resolver" +
+                        "; boolean upvalue //the variable belongs to an enclosing function and is reached through the closure" +
+                        "; boolean boxed //the slot holds a cell shared with closures because the variable is captured and assigned" +
+                        "; boolean unboxed //the local is a proven number kept in the frame's double slots, set by type inference" +
+                        "; Cell global //cell of the global it names, cached by the first read that finds it"
         ));
         //file for expression and print statements
         defineAst(outputDir, "Stmt", Arrays.asList(
+                "Block      : List<Stmt> statements",
+                "Class      : Token name, Expr superclass, List<Stmt.Function> methods" +
+                        " | int slot = -1 //stack slot of the template name, -1 when it is a global" +
+                        "; boolean boxed //the name lives in a cell because its methods capture it" +
+                        "; int superSlot //stack slot the superclass is kept in for methods to capture",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params," +
-                        " List<Stmt> body",
-                "If         : Expr condition, Stmt thenBranch," +
-                        " Stmt elseBranch",
+                "Function   : Token name, List<Token> parameters, List<Stmt> body" +
+                        " | int slot = -1 //stack slot of the function name, -1 when it is a global" +
+                        "; boolean boxed //the name lives in a cell because a closure captures it" +
+                        "; int stackSize //stack slots a call needs for the receiver, parameters and locals, set by the resolver" +
+                        "; int[] boxedParameters //stack slots of parameters that are captured and assigned, wrapped in cells on entry" +
+                        "; int[] upvalues //where each captured value comes from, a stack slot or an upvalue of the enclosing function" +
+                        "; boolean[] upvalueIsLocal //whether each upvalue is taken from the enclosing stack frame" +
+                        "; int calls //calls the tree-walker ran, negative once this or backEdges reaches its threshold and the body is queued for the JIT" +
+                        "; int backEdges //loop iterations the tree-walker ran in the body" +
+                        "; volatile java.lang.invoke.MethodHandle compiled //entry point of the class the JIT generated for the body, set by the compiler thread, null until then",
+                "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
-                "While      : Expr condition, Stmt body"
+                "Return     : Token keyword, Expr value" +
+                        " | boolean tail //the value is a call returned as is, it runs once the caller's frame is gone, set by the resolver",
+                "Var        : Token name, Expr initializer" +
+                        " | int slot = -1 //stack slot of the variable, -1 when it is a global" +
+                        "; boolean boxed //the variable lives in a cell because it is captured and assigned" +
+                        "; boolean reassigned //whether any assignment targets this local, set by the resolver" +
+                        "; boolean unboxed //the local is a proven number kept in the frame's double slots, set by type inference",
+                "While      : Expr condition, Stmt body, Expr increment" +
+                        " | int backEdges //iterations the tree-walker ran, negative once the loop is queued for on-stack replacement" +
+                        "; volatile java.lang.invoke.MethodHandle compiled //the loop compiled to take over a running frame, set by the compiler thread, null until then"
         ));
     }
-}
 
-//output expr class
-private static void defineAst(
-        String outputDir, String baseName, List<String> types)
-        throws IOException {
-    String path = outputDir + "/" + baseName + ".java";
-    PrintWriter writer = new PrintWriter(path, "UTF-8");
+    //output expr class
+    private static void defineAst(
+            String outputDir, String baseName, List<String> types)
+            throws IOException {
+        String path = outputDir + "/" + baseName + ".java";
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
 
-    writer.println("package com.craftinginterpreters.lox;");
-    writer.println();
-    writer.println("import java.util.List;");
-    writer.println();
-    writer.println("abstract class " + baseName + " {");
-    //visitor interface
-    defineVisitor(writer, baseName, types);
-    //base accept() method
-    writer.println();
-    writer.println("  abstract <R> R accept(Visitor<R> visitor);");
-    //define subclasses
-    for (String type : types) {
-        String className = type.split(":")[0].trim();
-        String fields = type.split(":")[1].trim();
-        defineType(writer, baseName, className, fields);
+        writer.println("package com.craftinginterpreters.jez;");
+        writer.println();
+        writer.println("import java.util.List;");
+        writer.println();
+        writer.println("abstract class " + baseName + " {");
+        //visitor interface
+        defineVisitor(writer, baseName, types);
+        //kind constants
+        defineKinds(writer, baseName, types);
+        //define subclasses
+        for (String type : types) {
+            String className = type.split(":")[0].trim();
+            String fields = type.split(":", 2)[1].trim();
+            defineType(writer, baseName, className, fields);
+        }
+        //base accept() method
+        writer.println();
+        writer.println("    abstract <R> R accept(Visitor<R> visitor);");
+        writer.print("}");
+        writer.close();
     }
-    writer.println("}");
-    writer.close();
-}
 
-//iterate through all subclasses and declare visit method for each
-private static void defineVisitor(
-        PrintWriter writer, String baseName, List<String> types) {
-    writer.println("  interface Visitor<R> {");
-    for (String type : types) {
-        String typeName = type.split(":")[0].trim();
-        writer.println("  R visit" + typeName + baseName + "(" + typeName + " " + baseName.toLowerCase() + ");");
-    }
+    //iterate through all subclasses and declare visit method for each
+    private static void defineVisitor(
+            PrintWriter writer, String baseName, List<String> types) {
+        writer.println("    interface Visitor<R> {");
+        for (String type : types) {
+            String typeName = type.split(":")[0].trim();
+            writer.println("        R visit" + typeName + baseName + "(" + typeName + " " + baseName.toLowerCase() + ");");
+        }
 
-    writer.println("  }");
-}
+        writer.println("    }");
+    }
 
-//define constructor
-private static void defineType(
-        PrintWriter writer, String baseName,
-        String className, String fieldList) {
-    writer.println("  static class " + className + " extends " + baseName + " {");
-    //constructor
-    writer.println("    " + className + "(" + fieldList + ") {");
-    //store parameters
-    String[] fields = fieldList.split(", ");
-    for (String field : fields) {
-        String name = field.split(" ")[1];
-        writer.println("      this." + name + " = " + name + ";");
+    //one int per subclass, so an evaluator can switch on a node instead of dispatching through accept
+    private static void defineKinds(
+            PrintWriter writer, String baseName, List<String> types) {
+        writer.println("    //which subclass a node is, for evaluators that switch on it instead of going through accept");
+        for (int i = 0; i < types.size(); i++) {
+            String typeName = types.get(i).split(":")[0].trim();
+            writer.println("    static final int " + typeName.toUpperCase() + " = " + i + ";");
+        }
+        writer.println("    final int kind;");
+        writer.println();
+        writer.println("    " + baseName + "(int kind) {");
+        writer.println("        this.kind = kind;");
+        writer.println("    }");
     }
-    writer.println("    }");
-    //call visit method for type
-    writer.println();
-    writer.println("    @Override");
-    writer.println("    <R> R accept(Visitor<R> visitor) {");
-    writer.println("      return visitor.visit" +
-            className + baseName + "(this);");
-    writer.println("    }");
-    //fields
-    writer.println();
-    for (String field : fields) {
-        writer.println("    final " + field + ";");
+
+    //define constructor
+    private static void defineType(
+            PrintWriter writer, String baseName,
+            String className, String fieldList) {
+        String[] parts = fieldList.split("\\|");
+        String constructorFields = parts[0].trim();
+        writer.println("    static class " + className + " extends " + baseName + " {");
+        //constructor
+        writer.println("        " + className + "(" + constructorFields + ") {");
+        writer.println("            super(" + className.toUpperCase() + ");");
+        //store parameters
+        String[] fields = constructorFields.split(", ");
+        for (String field : fields) {
+            String name = field.split(" ")[1];
+            writer.println("            this." + name + " = " + name + ";");
+        }
+        writer.println("        }");
+        //call visit method for type
+        writer.println();
+        writer.println("        <R> R accept(Visitor<R> visitor) {");
+        writer.println("            return visitor.visit" +
+                className + baseName + "(this);");
+        writer.println("        }");
+        //fields
+        writer.println();
+        for (String field : fields) {
+            writer.println("        final " + field + ";");
+        }
+        //fields set after parsing, each with its comment
+        if (parts.length > 1) {
+            for (String extra : parts[1].split(";")) {
+                String[] declaration = extra.split("//");
+                writer.println("        //" + declaration[1].trim());
+                writer.println("        " + declaration[0].trim() + ";");
+            }
+        }
+        writer.println("    }");
     }
-    writer.println("  }");
-}
\ No newline at end of file
+}